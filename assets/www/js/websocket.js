@@ -41,83 +41,48 @@
 		}
 	};
 
-	// private property
-	WebSocket._keyStr = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=";
-
-	// private method for decoding base64
-	WebSocket._decode = function (input) {
-		var output = "";
-		var chr1, chr2, chr3;
-		var enc1, enc2, enc3, enc4;
-		var i = 0;
-
-		input = input.replace(/[^A-Za-z0-9\+\/\=]/g, "");
-
-		while (i < input.length) {
-
-			enc1 = this._keyStr.indexOf(input.charAt(i++));
-			enc2 = this._keyStr.indexOf(input.charAt(i++));
-			enc3 = this._keyStr.indexOf(input.charAt(i++));
-			enc4 = this._keyStr.indexOf(input.charAt(i++));
-
-			chr1 = (enc1 << 2) | (enc2 >> 4);
-			chr2 = ((enc2 & 15) << 4) | (enc3 >> 2);
-			chr3 = ((enc3 & 3) << 6) | enc4;
-
-			output = output + String.fromCharCode(chr1);
+	// storage to hold websocket object for later invokation of event methods
+	WebSocket.store = {};
 
-			if (enc3 != 64) {
-				output = output + String.fromCharCode(chr2);
-			}
-			if (enc4 != 64) {
-				output = output + String.fromCharCode(chr3);
+	// delivers a batch of events: open, close and error events first, then the
+	// messages in the order they arrived (a socket's close after its messages)
+	WebSocket.dispatch = function (events) {
+		for (var i = 0; i < events.length; i++) {
+			var evt = events[i];
+			try {
+				WebSocket[evt._event](evt);
+			} catch (e) {
+				// don't let one failing handler drop the rest of the batch
+				setTimeout(function() { throw e; }, 0);
 			}
-
 		}
-
-		output = this._utf8_decode(output);
-
-		return output;
-
 	}
 
-	// private method for UTF-8 decoding
-	WebSocket._utf8_decode = function (utftext) {
-		var string = "";
-		var i = 0;
-		var c = c1 = c2 = 0;
-
-		while ( i < utftext.length ) {
-
-			c = utftext.charCodeAt(i);
-
-			if (c < 128) {
-				string += String.fromCharCode(c);
-				i++;
-			}
-			else if((c > 191) && (c < 224)) {
-				c2 = utftext.charCodeAt(i+1);
-				string += String.fromCharCode(((c & 31) << 6) | (c2 & 63));
-				i += 2;
-			}
-			else {
-				c2 = utftext.charCodeAt(i+1);
-				c3 = utftext.charCodeAt(i+2);
-				string += String.fromCharCode(((c & 15) << 12) | ((c2 & 63) << 6) | (c3 & 63));
-				i += 3;
+	// maximum number of messages taken per bridge crossing in pull mode
+	WebSocket.pullBatchSize = 256;
+
+	// takes the messages waiting in pull mode (see WebSocketFactory.setPullMode),
+	// returns how many there were
+	WebSocket._pull = function () {
+		var events = JSON.parse(WebSocketFactory.drain(WebSocket.pullBatchSize));
+		for (var i = 0; i < events.length; i++) {
+			var evt = events[i];
+			try {
+				WebSocket.onmessage(evt);
+			} catch (e) {
+				setTimeout(function() { throw e; }, 0);
 			}
-
 		}
-
-		return string;
+		return events.length;
 	}
 
-	// storage to hold websocket object for later invokation of event methods
-	WebSocket.store = {};
-
 	// static event methods to call event methods on target websocket objects
 	WebSocket.onmessage = function (evt) {
-		WebSocket.store[evt._target]['onmessage'].call(global, this._decode(evt._data));
+		// sampled message (see WebSocketFactory.setTracing)
+		if (evt._trace !== undefined) {
+			WebSocketFactory.traceCallback(evt._trace);
+		}
+		WebSocket.store[evt._target]['onmessage'].call(global, evt._data);
 	}
 
 	WebSocket.onopen = function (evt) {
@@ -125,10 +90,13 @@
 	}
 
 	WebSocket.onclose = function (evt) {
+		// messages still waiting in pull mode came before the close
+		while (WebSocket._pull() == WebSocket.pullBatchSize);
 		WebSocket.store[evt._target]['onclose'].call(global, evt);
 	}
 
 	WebSocket.onerror = function (evt) {
+		while (WebSocket._pull() == WebSocket.pullBatchSize);
 		WebSocket.store[evt._target]['onerror'].call(global, evt);
 	}
 
@@ -141,6 +109,18 @@
 		this.socket.close();
 	}
 
+	// lets n more messages arrive when the factory uses flow control
+	// (see WebSocketFactory.setFlowControl); call once they were handled
+	WebSocket.prototype.grantCredits = function(n) {
+		this.socket.grantCredits(n);
+	}
+
+	// bytes, messages, send queue and latencies of this socket
+	// (see WebSocketFactory.getMetrics)
+	WebSocket.prototype.getMetrics = function() {
+		return JSON.parse(WebSocketFactory.getSocketMetrics(this.socket.getId()));
+	}
+
 	WebSocket.prototype.getReadyState = function() {
 		this.socket.getReadyState();
 	}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times {@link Microbenchmark}s and collects the results as JSON, so runs can
+ * be kept and compared to find regressions.
+ * <p>
+ * Each benchmark is first calibrated to the number of iterations that fill a
+ * round, then run for a few warm-up rounds that are thrown away, then for
+ * the measured rounds. The result is the mean time per operation over the
+ * measured rounds and its standard deviation:
+ *
+ * <pre>
+ * {"jvm":"...","timestamp":...,"roundMillis":200,"rounds":5,"benchmarks":[
+ *   {"name":"framing.parse.rfc6455","size":128,"nsPerOp":101.2,"error":1.3,"opsPerSecond":9881422,"mbPerSecond":1206.2},
+ *   ...]}
+ * </pre>
+ *
+ * Each line of progress goes to System.err, leaving System.out to the JSON.
+ *
+ * @author Animesh Kumar
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Sink for the values returned by the benchmarks.
+	 */
+	public static volatile long blackhole;
+
+	private final long roundNanos;
+	private final int warmUpRounds;
+	private final int rounds;
+	private final StringBuilder results = new StringBuilder();
+
+	/**
+	 * @param roundMillis
+	 *            how long a round runs
+	 * @param warmUpRounds
+	 *            rounds run before measuring
+	 * @param rounds
+	 *            rounds measured
+	 */
+	public BenchmarkRunner(long roundMillis, int warmUpRounds, int rounds) {
+		if (roundMillis < 1 || warmUpRounds < 0 || rounds < 1) {
+			throw new IllegalArgumentException("Invalid rounds: " + roundMillis + "ms, " + warmUpRounds + " warm-up, "
+					+ rounds + " measured");
+		}
+		this.roundNanos = roundMillis * 1000000L;
+		this.warmUpRounds = warmUpRounds;
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Creates a runner from the command line of a suite:
+	 * <tt>[output.json] [roundMillis] [warmUpRounds] [rounds]</tt>, with
+	 * 200ms, 5 and 5 as defaults.
+	 */
+	public static BenchmarkRunner fromArgs(String[] args) {
+		long roundMillis = args.length > 1 ? Long.parseLong(args[1]) : 200;
+		int warmUpRounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		return new BenchmarkRunner(roundMillis, warmUpRounds, rounds);
+	}
+
+	/**
+	 * Times <var>benchmark</var> and adds its result.
+	 *
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	public void run(Microbenchmark benchmark) throws Exception {
+		int iterations = calibrate(benchmark);
+		for (int i = 0; i < warmUpRounds; i++) {
+			blackhole += benchmark.run(iterations);
+		}
+		double[] nsPerOp = new double[rounds];
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			blackhole += benchmark.run(iterations);
+			nsPerOp[i] = (double) (System.nanoTime() - start) / iterations;
+		}
+
+		double mean = 0;
+		for (double value : nsPerOp) {
+			mean += value;
+		}
+		mean /= rounds;
+		double variance = 0;
+		for (double value : nsPerOp) {
+			variance += (value - mean) * (value - mean);
+		}
+		double error = rounds > 1 ? Math.sqrt(variance / (rounds - 1)) : 0;
+		double opsPerSecond = 1e9 / mean;
+		double mbPerSecond = opsPerSecond * benchmark.getSize() / (1024 * 1024);
+
+		if (results.length() > 0) {
+			results.append(",\n");
+		}
+		results.append("  {\"name\":\"").append(benchmark.getName()).append("\",\"size\":").append(benchmark.getSize())
+				.append(",\"nsPerOp\":").append(format(mean)).append(",\"error\":").append(format(error))
+				.append(",\"opsPerSecond\":").append(Math.round(opsPerSecond)).append(",\"mbPerSecond\":")
+				.append(format(mbPerSecond)).append('}');
+		System.err.println(String.format(Locale.US, "%-40s %7d %12.1f ns/op +- %.1f %10.1f MB/s", benchmark.getName(),
+				benchmark.getSize(), mean, error, mbPerSecond));
+	}
+
+	/**
+	 * @return the results so far as a JSON document
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"jvm\":\"").append(escape(System.getProperty("java.vm.name"))).append(' ')
+				.append(escape(System.getProperty("java.version"))).append("\",\"timestamp\":")
+				.append(System.currentTimeMillis()).append(",\"roundMillis\":").append(roundNanos / 1000000L)
+				.append(",\"rounds\":").append(rounds).append(",\"benchmarks\":[\n").append(results).append("]}");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the results to the file named by the first argument of a suite,
+	 * or to System.out if there is none (or it is "-").
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writeJson(String[] args) throws IOException {
+		if (args.length == 0 || "-".equals(args[0])) {
+			System.out.println(toJson());
+			return;
+		}
+		Writer out = new FileWriter(args[0]);
+		try {
+			out.write(toJson());
+			out.write('\n');
+		} finally {
+			out.close();
+		}
+	}
+
+	// doubles the iterations until one run takes a tenth of a round, then
+	// scales up to fill the round
+	private int calibrate(Microbenchmark benchmark) throws Exception {
+		int iterations = 1;
+		while (true) {
+			long start = System.nanoTime();
+			blackhole += benchmark.run(iterations);
+			long elapsed = System.nanoTime() - start;
+			if (elapsed >= roundNanos / 10 || iterations >= Integer.MAX_VALUE / 2) {
+				return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) iterations * roundNanos / Math.max(1, elapsed)));
+			}
+			iterations *= 2;
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.2f", value);
+	}
+
+	private static String escape(String value) {
+		return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Fills an array with <var>size</var> bytes of text, mostly ASCII with a
+	 * two byte character now and then, like typical JSON messages.
+	 */
+	public static byte[] text(int size) {
+		byte[] text = new byte[size];
+		Arrays.fill(text, (byte) 'x');
+		for (int i = 31; i + 1 < size; i += 64) {
+			text[i] = (byte) 0xC3;
+			text[i + 1] = (byte) 0xA9;
+		}
+		return text;
+	}
+}
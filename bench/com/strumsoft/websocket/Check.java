@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+/**
+ * Bookkeeping for the runnable checks under bench/: each check states its
+ * expectations with {@link #check(boolean, String)} and ends with
+ * {@link #done()}, which exits with status 1 if any of them failed, so a
+ * build can run them.
+ *
+ * @author Animesh Kumar
+ */
+public final class Check {
+
+	private static int passed;
+	private static int failed;
+
+	private Check() {
+	}
+
+	/**
+	 * Reports <var>what</var> as passed if <var>condition</var> holds, as
+	 * failed otherwise.
+	 *
+	 * @return condition
+	 */
+	public static synchronized boolean check(boolean condition, String what) {
+		if (condition) {
+			passed++;
+			System.out.println("ok      " + what);
+		} else {
+			failed++;
+			System.out.println("FAILED  " + what);
+		}
+		return condition;
+	}
+
+	/**
+	 * Prints the totals and exits, with status 1 if a check failed.
+	 */
+	public static synchronized void done() {
+		System.out.println(passed + " passed, " + failed + " failed");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes sockets connected to a {@link LoopbackEchoServer} and checks that
+ * each waits for the server's close frame, but no longer than its close
+ * timeout: when the server answers, when it never does, and when it doesn't
+ * even read the close frame.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.CloseTimeoutCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class CloseTimeoutCheck {
+
+	private static final long CLOSE_TIMEOUT = 500;
+	/**
+	 * Sent ahead of the close to a server that doesn't read, so the frame
+	 * stays queued.
+	 */
+	private static final int BACKLOG_BYTES = 32 * 1024 * 1024;
+
+	/**
+	 * Waits for the socket to open and to close.
+	 */
+	private static class ClosingListener implements WebSocketListener {
+		final CountDownLatch opened = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		public void onOpen(WebSocketConnection socket) {
+			opened.countDown();
+		}
+
+		public void onMessage(WebSocketConnection socket, CharSequence message) {
+		}
+
+		public void onBinaryMessage(WebSocketConnection socket, ByteBuffer message) {
+		}
+
+		public void onClose(WebSocketConnection socket) {
+			closed.countDown();
+		}
+
+		public void onError(WebSocketConnection socket, Throwable t) {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+
+		// the echo server answers the close frame
+		long millis = closeAfter(loop, server, "/", 0);
+		System.out.println(String.format("answered: closed after %d ms", millis));
+		Check.check(millis >= 0 && millis < CLOSE_TIMEOUT / 2, "closes as soon as the server answers");
+		Check.check(server.getLastCloseCode() == 1000, "the server gets status code 1000: "
+				+ server.getLastCloseCode());
+
+		// the flood server never answers
+		millis = closeAfter(loop, server, "/flood/16", 0);
+		System.out.println(String.format("unanswered: closed after %d ms", millis));
+		Check.check(millis >= CLOSE_TIMEOUT * 9 / 10, "waits for the server's close frame");
+		Check.check(millis >= 0 && millis < CLOSE_TIMEOUT + 1000, "closes once the timeout passes");
+
+		// nor does it read, so the close frame never goes out
+		millis = closeAfter(loop, server, "/flood/16", BACKLOG_BYTES);
+		System.out.println(String.format("unread: closed after %d ms", millis));
+		Check.check(millis >= 0 && millis < CLOSE_TIMEOUT + 1000, "closes when the close frame can't be sent");
+
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+
+	/**
+	 * Connects to <var>path</var>, sends <var>backlog</var> bytes and closes.
+	 *
+	 * @return milliseconds from close() to onClose, or -1 if it took more
+	 *         than 5 seconds
+	 */
+	private static long closeAfter(WebSocketEventLoop loop, LoopbackEchoServer server, String path, int backlog)
+			throws Exception {
+		ClosingListener listener = new ClosingListener();
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:" + server.getPort()
+				+ path), WebSocketConnection.Draft.RFC6455, "closing", listener);
+		socket.setCloseTimeout(CLOSE_TIMEOUT);
+		socket.connect();
+		if (!listener.opened.await(5, TimeUnit.SECONDS)) {
+			return -1;
+		}
+		byte[] chunk = new byte[64 * 1024];
+		for (int sent = 0; sent < backlog; sent += chunk.length) {
+			socket.sendBinary(chunk);
+		}
+		long start = System.nanoTime();
+		socket.close();
+		if (!listener.closed.await(5, TimeUnit.SECONDS)) {
+			return -1;
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * Measures the connect-to-open latency of sockets on the loopback interface:
+ * each connection to a {@link LoopbackEchoServer} is opened, timed from
+ * {@link WebSocketConnection#connect()} to the onOpen callback, and closed
+ * before the next one, for every draft.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.ConnectLatencyBenchmark [connections]
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class ConnectLatencyBenchmark {
+
+	private static final int WARMUP = 200;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+		URI uri = new URI("ws://127.0.0.1:" + server.getPort() + "/");
+
+		System.out.println(String.format("%-10s %10s %10s %10s %10s", "draft", "mean us", "p50 us", "p90 us",
+				"p99 us"));
+		for (WebSocketConnection.Draft draft : WebSocketConnection.Draft.values()) {
+			measure(loop, uri, draft, WARMUP);
+			long[] micros = measure(loop, uri, draft, count);
+			long total = 0;
+			for (long m : micros) {
+				total += m;
+			}
+			Arrays.sort(micros);
+			System.out.println(String.format("%-10s %10d %10d %10d %10d", draft, total / micros.length,
+					micros[micros.length / 2], micros[micros.length * 9 / 10], micros[micros.length * 99 / 100]));
+		}
+
+		loop.shutdown();
+		server.shutdown();
+	}
+
+	// connects count times in a row; returns the latency of each in
+	// microseconds
+	private static long[] measure(WebSocketEventLoop loop, URI uri, WebSocketConnection.Draft draft, int count)
+			throws Exception {
+		long[] micros = new long[count];
+		for (int i = 0; i < count; i++) {
+			RecordingListener listener = new RecordingListener();
+			WebSocketConnection socket = new WebSocketConnection(loop, uri, draft, "latency-" + i, listener);
+			long start = System.nanoTime();
+			socket.connect();
+			if (!listener.awaitOpen(5000)) {
+				throw new IllegalStateException("Connection " + i + " did not open: " + listener.getErrors());
+			}
+			micros[i] = (System.nanoTime() - start) / 1000;
+			socket.close();
+			listener.awaitClose(5000);
+		}
+		return micros;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compares permessage-deflate with plain frames on JSON messages of a few
+ * sizes: the bytes each puts on the wire, and the CPU time the client spends
+ * framing a message to send and inflating one it receives.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.DeflateBenchmark [messages]
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class DeflateBenchmark {
+
+	private static final int[] SIZES = { 64, 256, 1024, 16384 };
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		System.out.println(String.format("%-6s %-26s %12s %10s %12s", "size", "framing", "wire bytes", "ratio",
+				"ns/message"));
+		for (int size : SIZES) {
+			byte[][] messages = messages(size, 256);
+			long plain = 0;
+			long plainNanos = 0;
+			for (int round = 0; round < 2; round++) {
+				plain = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					byte[] message = messages[i % messages.length];
+					plain += Rfc6455Frames.encode(Rfc6455Frames.OPCODE_TEXT, false, message, 0, message.length, i)
+							.remaining();
+				}
+				plainNanos = System.nanoTime() - start;
+			}
+			print(size, "plain", plain, plain, plainNanos / count);
+			send(size, "deflate", new PerMessageDeflate(), messages, count, plain);
+			send(size, "deflate, no takeover", new PerMessageDeflate(true, true, PerMessageDeflate.MAX_WINDOW_BITS,
+					PerMessageDeflate.DEFAULT_MIN_COMPRESS_SIZE, Deflater.DEFAULT_COMPRESSION), messages, count, plain);
+			receive(size, messages, count);
+		}
+	}
+
+	// frames count messages to send with deflate
+	private static void send(int size, String name, PerMessageDeflate deflate, byte[][] messages, int count,
+			long plain) throws Exception {
+		deflate.accept(PerMessageDeflate.EXTENSION_NAME);
+		long wire = 0;
+		long nanos = 0;
+		for (int round = 0; round < 2; round++) {
+			wire = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				wire += deflate.encode(Rfc6455Frames.OPCODE_TEXT, messages[i % messages.length], i).remaining();
+			}
+			nanos = System.nanoTime() - start;
+		}
+		deflate.end();
+		print(size, name + " send", wire, plain, nanos / count);
+	}
+
+	// inflates count messages compressed the way a server with context
+	// takeover sends them
+	private static void receive(int size, byte[][] messages, int count) throws Exception {
+		Deflater server = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		byte[][] compressed = new byte[count][];
+		byte[] output = new byte[size * 2 + 64];
+		for (int i = 0; i < count; i++) {
+			server.setInput(messages[i % messages.length]);
+			int n = server.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+			// without the 00 00 FF FF trailer of the sync flush
+			compressed[i] = new byte[n - 4];
+			System.arraycopy(output, 0, compressed[i], 0, n - 4);
+		}
+		server.end();
+		PerMessageDeflate deflate = new PerMessageDeflate();
+		deflate.accept(PerMessageDeflate.EXTENSION_NAME);
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			deflate.inflate(ByteBuffer.wrap(compressed[i]), WebSocketConnection.DEFAULT_MAX_MESSAGE_SIZE);
+		}
+		long nanos = System.nanoTime() - start;
+		deflate.end();
+		System.out.println(String.format("%-6d %-26s %12s %10s %12d", size, "deflate receive", "", "", nanos
+				/ count));
+	}
+
+	private static void print(int size, String name, long wire, long plain, long nanos) {
+		System.out.println(String.format("%-6d %-26s %,12d %10.2f %12d", size, name, wire, (double) wire / plain,
+				nanos));
+	}
+
+	// distinct JSON messages of about size bytes, as a feed sends them
+	private static byte[][] messages(int size, int count) throws Exception {
+		byte[][] messages = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			StringBuilder json = new StringBuilder("[");
+			for (int j = 0; json.length() < size - 2; j++) {
+				if (j > 0) {
+					json.append(',');
+				}
+				json.append("{\"id\":").append(i * 1000 + j).append(",\"symbol\":\"SYM").append((i + j) % 40)
+						.append("\",\"price\":").append(100 + (i * 7 + j * 13) % 900).append('.').append(j % 100)
+						.append(",\"side\":\"").append(j % 2 == 0 ? "buy" : "sell").append("\"}");
+			}
+			json.setLength(Math.min(json.length(), size - 1));
+			messages[i] = json.append(']').toString().getBytes(WebSocketConnection.UTF8_CHARSET);
+		}
+		return messages;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Has a {@link LoopbackEchoServer} send permessage-deflate messages that
+ * inflate to more, and to less, than the socket's maximum message size, and
+ * checks that the first fails the connection with status code 1009 before
+ * any of it is delivered, and that the second arrives whole.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.DeflateLimitCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class DeflateLimitCheck {
+
+	private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+	/**
+	 * Inflates to 16 times the limit from about a kilobyte on the wire.
+	 */
+	private static final int BOMB_SIZE = 16 * MAX_MESSAGE_SIZE;
+
+	/**
+	 * Keeps what one socket went through.
+	 */
+	private static class ResultListener implements WebSocketListener {
+		final CountDownLatch closed = new CountDownLatch(1);
+		volatile int messages;
+		volatile int length;
+		volatile Throwable error;
+
+		public void onOpen(WebSocketConnection socket) {
+		}
+
+		public void onMessage(WebSocketConnection socket, CharSequence message) {
+			messages++;
+			length = message.length();
+			socket.close();
+		}
+
+		public void onBinaryMessage(WebSocketConnection socket, ByteBuffer message) {
+			messages++;
+		}
+
+		public void onClose(WebSocketConnection socket) {
+			closed.countDown();
+		}
+
+		public void onError(WebSocketConnection socket, Throwable t) {
+			error = t;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+
+		ResultListener bomb = connect(loop, server, BOMB_SIZE);
+		Check.check(bomb.closed.await(5, TimeUnit.SECONDS), "a message over the limit closes the socket");
+		Check.check(bomb.error instanceof MessageTooBigException, "it is reported as too big: " + bomb.error);
+		Check.check(bomb.messages == 0, "none of it is delivered");
+		// the server reads the close frame after the client sent it
+		Thread.sleep(100);
+		Check.check(server.getLastCloseCode() == 1009, "the server gets status code 1009: "
+				+ server.getLastCloseCode());
+
+		ResultListener fits = connect(loop, server, MAX_MESSAGE_SIZE);
+		Check.check(fits.closed.await(5, TimeUnit.SECONDS), "a message at the limit is received");
+		Check.check(fits.messages == 1 && fits.length == MAX_MESSAGE_SIZE, "it arrives whole");
+		Check.check(fits.error == null, "no errors: " + fits.error);
+
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+
+	private static ResultListener connect(WebSocketEventLoop loop, LoopbackEchoServer server, int size)
+			throws Exception {
+		ResultListener listener = new ResultListener();
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:" + server.getPort()
+				+ "/deflate/" + size), WebSocketConnection.Draft.RFC6455, "deflate", listener);
+		socket.setPerMessageDeflate(new PerMessageDeflate());
+		socket.setMaxMessageSize(MAX_MESSAGE_SIZE);
+		socket.connect();
+		return listener;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * Benchmarks the protocol engine's hot spots across message sizes:
+ * <ul>
+ * <li><tt>framing.parse.*</tt>: parsing server frames into text messages, as
+ * <tt>_readFrame</tt> does, fed a read's worth of frames at a time</li>
+ * <li><tt>framing.send.*</tt>: the steps <tt>_send</tt> takes to turn a
+ * string into a frame, masking key included</li>
+ * <li><tt>base64.*</tt>: {@link Base64} against the JDK's
+ * <tt>java.util.Base64</tt></li>
+ * </ul>
+ *
+ * <pre>
+ * java com.strumsoft.websocket.FramingBenchmark [output.json] [roundMillis] [warmUpRounds] [rounds]
+ * </pre>
+ *
+ * The comparison needs Java 8 to compile and run; the library itself does
+ * not use <tt>java.util.Base64</tt>, which Android only has from API 26.
+ *
+ * @author Animesh Kumar
+ */
+public class FramingBenchmark {
+
+	static final int[] SIZES = { 16, 128, 1024, 16384, 65536 };
+
+	/**
+	 * Bytes a single read from the socket brings in.
+	 */
+	private static final int READ_SIZE = WebSocketConnection.READ_BUFFER_SIZE;
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = BenchmarkRunner.fromArgs(args);
+		run(runner);
+		runner.writeJson(args);
+	}
+
+	/**
+	 * Runs all benchmarks of this suite with <var>runner</var>.
+	 */
+	public static void run(BenchmarkRunner runner) throws Exception {
+		for (int size : SIZES) {
+			runner.run(parse(WebSocketConnection.Draft.RFC6455, size));
+		}
+		for (int size : SIZES) {
+			runner.run(parse(WebSocketConnection.Draft.DRAFT76, size));
+		}
+		for (int size : SIZES) {
+			runner.run(send(WebSocketConnection.Draft.RFC6455, size));
+		}
+		for (int size : SIZES) {
+			runner.run(send(WebSocketConnection.Draft.DRAFT76, size));
+		}
+		for (int size : SIZES) {
+			runner.run(base64Encode(size));
+			runner.run(jdkBase64Encode(size));
+			runner.run(base64Decode(size));
+			runner.run(jdkBase64Decode(size));
+		}
+	}
+
+	/**
+	 * Counts the characters of the messages it gets.
+	 */
+	private static class CountingListener implements WebSocketListener {
+		long characters;
+
+		public void onOpen(WebSocketConnection socket) {
+		}
+
+		public void onMessage(WebSocketConnection socket, CharSequence message) {
+			characters += message.length();
+		}
+
+		public void onBinaryMessage(WebSocketConnection socket, ByteBuffer message) {
+		}
+
+		public void onClose(WebSocketConnection socket) {
+		}
+
+		public void onError(WebSocketConnection socket, Throwable t) {
+		}
+	}
+
+	/**
+	 * One operation parses one text message of <var>size</var> bytes.
+	 */
+	static Microbenchmark parse(WebSocketConnection.Draft draft, final int size) throws Exception {
+		final CountingListener listener = new CountingListener();
+		WebSocketConnection socket = new WebSocketConnection(null, new URI("ws://localhost/"), draft, "bench",
+				listener);
+		final FrameParser parser = draft == WebSocketConnection.Draft.RFC6455 ? new Rfc6455FrameParser(socket)
+				: new SentinelFrameParser(socket);
+		final ByteBuffer frame = serverFrame(draft, BenchmarkRunner.text(size));
+		final int frameLength = frame.remaining();
+		final int framesPerRead = Math.max(1, READ_SIZE / frameLength);
+		final ByteBuffer read = ByteBuffer.allocate(framesPerRead * frameLength);
+		for (int i = 0; i < framesPerRead; i++) {
+			read.put(frame.duplicate());
+		}
+		String name = draft == WebSocketConnection.Draft.RFC6455 ? "framing.parse.rfc6455" : "framing.parse.sentinel";
+		return new Microbenchmark(name, size) {
+			@Override
+			protected long run(int iterations) throws Exception {
+				for (int left = iterations; left > 0; left -= framesPerRead) {
+					read.limit(Math.min(left, framesPerRead) * frameLength);
+					read.position(0);
+					parser.parse(read);
+				}
+				return listener.characters;
+			}
+		};
+	}
+
+	/**
+	 * One operation turns a string of <var>size</var> UTF-8 bytes into a
+	 * frame ready to be queued.
+	 */
+	static Microbenchmark send(final WebSocketConnection.Draft draft, int size) throws Exception {
+		final String text = new String(BenchmarkRunner.text(size), WebSocketConnection.UTF8_CHARSET);
+		final SecureRandom maskRandom = new SecureRandom();
+		String name = draft == WebSocketConnection.Draft.RFC6455 ? "framing.send.rfc6455" : "framing.send.sentinel";
+		return new Microbenchmark(name, size) {
+			@Override
+			protected long run(int iterations) throws UnsupportedEncodingException {
+				long sum = 0;
+				for (int i = 0; i < iterations; i++) {
+					byte[] textBytes = text.getBytes(WebSocketConnection.UTF8_CHARSET);
+					ByteBuffer b;
+					if (draft == WebSocketConnection.Draft.RFC6455) {
+						b = Rfc6455Frames.encode(Rfc6455Frames.OPCODE_TEXT, false, textBytes, 0, textBytes.length,
+								maskRandom.nextInt());
+					} else {
+						b = ByteBuffer.allocate(textBytes.length + 2);
+						b.put(WebSocketConnection.DATA_START_OF_FRAME);
+						b.put(textBytes);
+						b.put(WebSocketConnection.DATA_END_OF_FRAME);
+						b.rewind();
+					}
+					sum += b.get(b.limit() - 1);
+				}
+				return sum;
+			}
+		};
+	}
+
+	static Microbenchmark base64Encode(int size) {
+		final byte[] data = BenchmarkRunner.text(size);
+		return new Microbenchmark("base64.encode", size) {
+			@Override
+			protected long run(int iterations) {
+				long sum = 0;
+				for (int i = 0; i < iterations; i++) {
+					sum += Base64.encodeBytes(data).length();
+				}
+				return sum;
+			}
+		};
+	}
+
+	static Microbenchmark jdkBase64Encode(int size) {
+		final byte[] data = BenchmarkRunner.text(size);
+		final java.util.Base64.Encoder encoder = java.util.Base64.getEncoder();
+		return new Microbenchmark("base64.encode.jdk", size) {
+			@Override
+			protected long run(int iterations) {
+				long sum = 0;
+				for (int i = 0; i < iterations; i++) {
+					sum += encoder.encodeToString(data).length();
+				}
+				return sum;
+			}
+		};
+	}
+
+	static Microbenchmark base64Decode(int size) {
+		final String encoded = Base64.encodeBytes(BenchmarkRunner.text(size));
+		return new Microbenchmark("base64.decode", size) {
+			@Override
+			protected long run(int iterations) throws Exception {
+				long sum = 0;
+				for (int i = 0; i < iterations; i++) {
+					sum += Base64.decode(encoded).length;
+				}
+				return sum;
+			}
+		};
+	}
+
+	static Microbenchmark jdkBase64Decode(int size) {
+		final String encoded = Base64.encodeBytes(BenchmarkRunner.text(size));
+		final java.util.Base64.Decoder decoder = java.util.Base64.getDecoder();
+		return new Microbenchmark("base64.decode.jdk", size) {
+			@Override
+			protected long run(int iterations) {
+				long sum = 0;
+				for (int i = 0; i < iterations; i++) {
+					sum += decoder.decode(encoded).length;
+				}
+				return sum;
+			}
+		};
+	}
+
+	/**
+	 * Frames <var>payload</var> the way a server sends it: unmasked for RFC
+	 * 6455, between sentinels for the drafts.
+	 */
+	private static ByteBuffer serverFrame(WebSocketConnection.Draft draft, byte[] payload) {
+		ByteBuffer frame;
+		if (draft == WebSocketConnection.Draft.RFC6455) {
+			int length = payload.length;
+			frame = ByteBuffer.allocate(10 + length);
+			frame.put((byte) (Rfc6455Frames.FLAG_FIN | Rfc6455Frames.OPCODE_TEXT));
+			if (length < 126) {
+				frame.put((byte) length);
+			} else if (length <= 0xFFFF) {
+				frame.put((byte) 126);
+				frame.putShort((short) length);
+			} else {
+				frame.put((byte) 127);
+				frame.putLong(length);
+			}
+		} else {
+			frame = ByteBuffer.allocate(2 + payload.length);
+			frame.put(WebSocketConnection.DATA_START_OF_FRAME);
+		}
+		frame.put(payload);
+		if (draft != WebSocketConnection.Draft.RFC6455) {
+			frame.put(WebSocketConnection.DATA_END_OF_FRAME);
+		}
+		frame.flip();
+		return frame;
+	}
+}
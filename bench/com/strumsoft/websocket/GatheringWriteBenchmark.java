@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+
+/**
+ * Measures the throughput of bursts of 1,000 tiny messages to a
+ * {@link LoopbackEchoServer} with the gathering-write budget of
+ * {@link WebSocketConnection#setWriteBatchLimits(int, int)} off (one frame
+ * per write, as each frame used to be written), at its default, and raised
+ * well beyond it.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.GatheringWriteBenchmark [bursts]
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class GatheringWriteBenchmark {
+
+	private static final int BURST = 1000;
+	private static final String MESSAGE = "{\"t\":1}";
+
+	public static void main(String[] args) throws Exception {
+		int bursts = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+
+		int[][] budgets = { { 1, Integer.MAX_VALUE },
+				{ WebSocketConnection.DEFAULT_WRITE_BATCH_BUFFERS, WebSocketConnection.DEFAULT_WRITE_BATCH_BYTES },
+				{ 1024, 16 * 1024 * 1024 } };
+		String[] names = { "off (1 frame per write)", "default (64 frames, 64 KB)", "large (1024 frames, 16 MB)" };
+		// the first pass warms up
+		for (int pass = 0; pass < 2; pass++) {
+			for (int b = 0; b < budgets.length; b++) {
+				double rate = run(loop, server, budgets[b][0], budgets[b][1], bursts);
+				if (pass > 0) {
+					System.out.println(String.format("budget %-28s %,12.0f messages/s", names[b], rate));
+				}
+			}
+		}
+
+		loop.shutdown();
+		server.shutdown();
+	}
+
+	// sends bursts of BURST messages, each once the previous one was echoed;
+	// returns messages per second
+	private static double run(WebSocketEventLoop loop, LoopbackEchoServer server, int maxBuffers, int maxBytes,
+			int bursts) throws Exception {
+		RecordingListener listener = new RecordingListener() {
+			@Override
+			public void onMessage(WebSocketConnection socket, CharSequence message) {
+				// the echoes are not kept
+			}
+		};
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:" + server.getPort()
+				+ "/"), WebSocketConnection.Draft.DRAFT76, "burst", listener);
+		socket.setWriteBatchLimits(maxBuffers, maxBytes);
+		socket.connect();
+		if (!listener.awaitOpen(5000)) {
+			throw new IllegalStateException("Did not open: " + listener.getErrors());
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < bursts; i++) {
+			long echoed = server.getEchoedMessages();
+			for (int j = 0; j < BURST; j++) {
+				socket.send(MESSAGE);
+			}
+			while (server.getEchoedMessages() - echoed < BURST) {
+				Thread.yield();
+			}
+		}
+		double rate = (double) bursts * BURST * 1000000000L / (System.nanoTime() - start);
+		socket.close();
+		listener.awaitClose(5000);
+		return rate;
+	}
+}
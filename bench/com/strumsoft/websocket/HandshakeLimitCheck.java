@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.ProtocolException;
+import java.net.URI;
+
+/**
+ * Has a {@link LoopbackEchoServer} pad its handshake response with a header
+ * of a few sizes, and checks that the client accepts a large one but fails
+ * the handshake with onError once the headers grow beyond what it buffers.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.HandshakeLimitCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class HandshakeLimitCheck {
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+
+		for (WebSocketConnection.Draft draft : WebSocketConnection.Draft.values()) {
+			RecordingListener listener = connect(loop, server, draft, 4 * 1024);
+			Check.check(listener.awaitOpen(5000) && listener.getErrors().isEmpty(), draft
+					+ " opens with 4 KB of headers");
+
+			listener = connect(loop, server, draft, 1024 * 1024);
+			Check.check(listener.awaitClose(5000), draft + " gives up on 1 MB of headers");
+			Check.check(listener.getErrors().size() == 1 && listener.getErrors().get(0) instanceof ProtocolException,
+					draft + " reports the headers as too long: " + listener.getErrors());
+		}
+
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+
+	private static RecordingListener connect(WebSocketEventLoop loop, LoopbackEchoServer server,
+			WebSocketConnection.Draft draft, int padding) throws Exception {
+		RecordingListener listener = new RecordingListener();
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:" + server.getPort()
+				+ "/headers/" + padding), draft, "padded", listener);
+		socket.connect();
+		return listener;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures what idle connections cost: opens connections to a
+ * {@link LoopbackEchoServer} in a child process, lets each of them read one
+ * message, and checks the heap and direct memory they hold afterwards.
+ * Reads borrow their buffer from the {@link ByteBufferPool}, so an idle
+ * connection should hold no read buffer at all. Also checks that the pool
+ * hands released buffers out again and keeps no more than its bound.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.IdleMemoryCheck [connections] [max bytes per connection]
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class IdleMemoryCheck {
+
+	/**
+	 * Connections opened before measuring, so that classes are loaded and
+	 * the pool is warm.
+	 */
+	private static final int WARM_UP = 10;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long maxPerConnection = args.length > 1 ? Long.parseLong(args[1]) : 16 * 1024;
+
+		checkPool();
+
+		Process server = startServer();
+		try {
+			String uri = new BufferedReader(new InputStreamReader(server.getInputStream())).readLine().replaceAll(
+					".* on ", "");
+			WebSocketEventLoop loop = new WebSocketEventLoop();
+			List<WebSocketConnection> sockets = new ArrayList<WebSocketConnection>();
+			open(loop, uri, WARM_UP, sockets);
+			long heap = usedHeap();
+			long direct = usedDirect();
+
+			int opened = open(loop, uri, count, sockets);
+			long perConnection = (usedHeap() - heap) / count;
+			long directGrowth = usedDirect() - direct;
+			System.out.println(String.format("%d idle connections: %d bytes of heap each, direct memory %+d bytes",
+					count, perConnection, directGrowth));
+			Check.check(opened == count, opened + " of " + count + " connections open and echo");
+			Check.check(perConnection <= maxPerConnection, "an idle connection holds at most " + maxPerConnection
+					+ " bytes of heap");
+			Check.check(directGrowth < ByteBufferPool.MIN_CLASS_CAPACITY * count,
+					"idle connections hold no read buffer");
+
+			for (WebSocketConnection socket : sockets) {
+				socket.close();
+			}
+			loop.shutdown();
+		} finally {
+			server.destroy();
+		}
+		Check.done();
+	}
+
+	private static void checkPool() {
+		ByteBufferPool pool = new ByteBufferPool(2);
+		ByteBuffer buffer = pool.acquire(5000);
+		Check.check(buffer.isDirect() && buffer.capacity() == 2 * ByteBufferPool.MIN_CLASS_CAPACITY,
+				"the pool rounds up to a direct buffer of the next size class");
+		buffer.put((byte) 1);
+		pool.release(buffer);
+		ByteBuffer again = pool.acquire(6000);
+		Check.check(again == buffer && again.position() == 0, "a released buffer is handed out again, cleared");
+
+		ByteBuffer[] buffers = new ByteBuffer[3];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = pool.acquire(100);
+		}
+		for (ByteBuffer b : buffers) {
+			pool.release(b);
+		}
+		Check.check(pool.acquire(100) == buffers[0] && pool.acquire(100) == buffers[1]
+				&& pool.acquire(100) != buffers[2], "the pool keeps at most its bound of idle buffers");
+
+		ByteBuffer large = pool.acquire(1024 * 1024);
+		pool.release(large);
+		Check.check(pool.acquire(1024 * 1024) != large, "buffers larger than the size classes are not pooled");
+	}
+
+	/**
+	 * Opens <var>count</var> connections and has each of them echo a
+	 * message, so it has been through a read.
+	 *
+	 * @return the number that opened and echoed
+	 */
+	private static int open(WebSocketEventLoop loop, String uri, int count, List<WebSocketConnection> sockets)
+			throws Exception {
+		List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+		for (int i = 0; i < count; i++) {
+			RecordingListener listener = new RecordingListener();
+			WebSocketConnection socket = new WebSocketConnection(loop, new URI(uri), WebSocketConnection.Draft.RFC6455,
+					"socket-" + sockets.size(), listener);
+			socket.connect();
+			sockets.add(socket);
+			listeners.add(listener);
+		}
+		int echoed = 0;
+		for (int i = 0; i < count; i++) {
+			RecordingListener listener = listeners.get(i);
+			if (listener.awaitOpen(5000)) {
+				listener.expect(1);
+				sockets.get(sockets.size() - count + i).send("hello");
+				if (listener.awaitMessages(5000)) {
+					echoed++;
+				}
+			}
+		}
+		return echoed;
+	}
+
+	private static Process startServer() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				LoopbackEchoServer.class.getName(), "0");
+		builder.redirectErrorStream(true);
+		return builder.start();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long usedDirect() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+}
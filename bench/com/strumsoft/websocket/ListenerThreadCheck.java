@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that every {@link WebSocketListener} callback runs on the event loop
+ * thread, as the interface promises, also when the application calls
+ * {@link WebSocketConnection#close()} or fails a send from its own thread,
+ * and that a connection closed from two threads at once reports
+ * {@link WebSocketListener#onClose(WebSocketConnection)} exactly once.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.ListenerThreadCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class ListenerThreadCheck {
+
+	private static final int SOCKETS = 20;
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+		String uri = "ws://127.0.0.1:" + server.getPort() + "/";
+
+		for (WebSocketConnection.Draft draft : WebSocketConnection.Draft.values()) {
+			final List<WebSocketConnection> sockets = new ArrayList<WebSocketConnection>();
+			List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+			for (int i = 0; i < SOCKETS; i++) {
+				RecordingListener listener = new RecordingListener();
+				WebSocketConnection socket = new WebSocketConnection(loop, new URI(uri), draft, "socket-" + i,
+						listener);
+				// fails before the connection is open
+				socket.send("too early");
+				socket.connect();
+				sockets.add(socket);
+				listeners.add(listener);
+			}
+			boolean opened = true;
+			for (RecordingListener listener : listeners) {
+				opened &= listener.awaitOpen(5000);
+			}
+			Check.check(opened, draft + ": all sockets open");
+			for (int i = 0; i < SOCKETS; i++) {
+				listeners.get(i).expect(1);
+				sockets.get(i).send("hello");
+				// Draft 75/76 have no binary messages
+				sockets.get(i).sendBinary(new byte[] { 1 });
+			}
+			for (RecordingListener listener : listeners) {
+				listener.awaitMessages(5000);
+			}
+
+			// close every socket from this thread and another one at once
+			Thread other = new Thread(new Runnable() {
+				public void run() {
+					for (WebSocketConnection socket : sockets) {
+						socket.close();
+					}
+				}
+			});
+			other.start();
+			for (WebSocketConnection socket : sockets) {
+				socket.close();
+			}
+			other.join();
+
+			boolean closed = true;
+			boolean once = true;
+			Set<Thread> threads = new HashSet<Thread>();
+			for (RecordingListener listener : listeners) {
+				closed &= listener.awaitClose(5000);
+				// let a second onClose show up, if there is one
+				Thread.sleep(10);
+				once &= listener.getCloseCount() == 1;
+				threads.addAll(listener.getThreads());
+			}
+			Check.check(closed, draft + ": all sockets closed");
+			Check.check(once, draft + ": onClose fired once per socket");
+			Check.check(threads.size() == 1 && !threads.contains(Thread.currentThread())
+					&& !threads.contains(other), draft + ": all callbacks on the event loop thread " + threads);
+		}
+
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Opens a few hundred connections to a {@link LoopbackEchoServer} on one
+ * {@link WebSocketEventLoop} and checks that they all open, echo a message
+ * and close, and that they share the single loop thread. Once the loop is
+ * shut down, a new connection must fail instead of waiting forever.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.LoopbackConnectionsCheck [connections]
+ * </pre>
+ *
+ * The server runs a thread per connection, so the operating system must let
+ * the process open twice as many sockets.
+ *
+ * @author Animesh Kumar
+ */
+public class LoopbackConnectionsCheck {
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+		String uri = "ws://127.0.0.1:" + server.getPort() + "/";
+		int threadsBefore = clientThreads();
+
+		List<WebSocketConnection> sockets = new ArrayList<WebSocketConnection>();
+		List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			RecordingListener listener = new RecordingListener();
+			WebSocketConnection socket = new WebSocketConnection(loop, new URI(uri), WebSocketConnection.Draft.RFC6455,
+					"socket-" + i, listener);
+			socket.connect();
+			sockets.add(socket);
+			listeners.add(listener);
+		}
+		int opened = 0;
+		for (RecordingListener listener : listeners) {
+			if (listener.awaitOpen(10000)) {
+				opened++;
+			}
+		}
+		System.out.println(String.format("%d connections open in %.0f ms", opened,
+				(System.nanoTime() - start) / 1e6));
+		Check.check(opened == count, opened + " of " + count + " connections open");
+		Check.check(clientThreads() - threadsBefore == 1, "the connections share one loop thread (" + clientThreads()
+				+ " client threads)");
+
+		for (int i = 0; i < count; i++) {
+			listeners.get(i).expect(1);
+			sockets.get(i).send("hello " + i);
+		}
+		int echoed = 0;
+		for (int i = 0; i < count; i++) {
+			RecordingListener listener = listeners.get(i);
+			if (listener.awaitMessages(5000) && listener.getMessages().equals(Arrays.asList("hello " + i))) {
+				echoed++;
+			}
+		}
+		Check.check(echoed == count, echoed + " of " + count + " connections echo their message");
+		// the first message of a connection is always timed
+		int timed = 0;
+		for (WebSocketConnection socket : sockets) {
+			if (socket.getMetrics().getReadToDispatch().getCount() == 1) {
+				timed++;
+			}
+		}
+		Check.check(timed == count && loop.getMetrics().getReadToDispatch().getCount() == count, timed + " of "
+				+ count + " connections time their message from read to dispatch, "
+				+ loop.getMetrics().getReadToDispatch().getCount() + " in the totals");
+
+		for (WebSocketConnection socket : sockets) {
+			socket.close();
+		}
+		int closed = 0;
+		int errors = 0;
+		for (RecordingListener listener : listeners) {
+			if (listener.awaitClose(5000) && listener.getCloseCount() == 1) {
+				closed++;
+			}
+			errors += listener.getErrors().size();
+		}
+		Check.check(closed == count, closed + " of " + count + " connections closed once");
+		Check.check(errors == 0, errors + " errors");
+
+		loop.shutdown();
+		RecordingListener late = new RecordingListener();
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI(uri), WebSocketConnection.Draft.RFC6455,
+				"late", late);
+		socket.connect();
+		Check.check(late.awaitClose(1000) && late.getErrors().size() == 1, "a connection on a shut down loop fails");
+		Check.check(socket.getReadyState() == WebSocketConnection.WEBSOCKET_STATE_CLOSED, "and is closed");
+		server.shutdown();
+		Check.done();
+	}
+
+	/**
+	 * @return the number of live threads, but those of the server
+	 */
+	private static int clientThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && !thread.getName().startsWith("LoopbackEchoServer")) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+
+/**
+ * The <tt>LoopbackEchoServer</tt> is a small WebSocket server on the loopback
+ * interface that sends every message back, for load tests of the client. It
+ * speaks Draft 75, Draft 76 and RFC 6455, telling them apart by the handshake
+ * headers, and serves each connection with a thread of its own.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.LoopbackEchoServer [port]
+ * </pre>
+ *
+ * It answers pings and echoes close frames. It offers no extensions, but
+ * for the "/deflate/" path below.
+ *
+ * An RFC 6455 client connecting to the path "/flood/<var>size</var>" gets
+ * text messages of <var>size</var> bytes instead, as fast as it reads them,
+ * until it goes away.
+ *
+ * One connecting to "/deflate/<var>size</var>" gets permessage-deflate, if it
+ * offers it, and one compressed text message of <var>size</var> bytes before
+ * the echoing starts.
+ *
+ * Broken servers are played on two more paths, again before the echoing
+ * starts: "/raw/<var>hex</var>" sends the given bytes, and
+ * "/fragments/<var>size</var>/<var>count</var>" a text message in
+ * <var>count</var> fragments of <var>size</var> bytes. With any draft, the
+ * path "/headers/<var>size</var>" pads the handshake response with a header
+ * of <var>size</var> bytes.
+ *
+ * @author Animesh Kumar
+ */
+public class LoopbackEchoServer implements Runnable {
+
+	private final ServerSocket serverSocket;
+
+	private volatile boolean running;
+
+	/**
+	 * Number of messages sent back.
+	 */
+	private final AtomicLong echoed = new AtomicLong();
+
+	private final AtomicLong flooded = new AtomicLong();
+
+	/**
+	 * Status code of the close frame the last RFC 6455 client sent, or 0.
+	 */
+	private volatile int lastCloseCode;
+
+	/**
+	 * Instantiates a server listening on <var>port</var> of the loopback
+	 * address.
+	 *
+	 * @param port
+	 *            the port, 0 for any free one
+	 * @throws IOException
+	 */
+	public LoopbackEchoServer(int port) throws IOException {
+		this.serverSocket = new ServerSocket(port, 1024, InetAddress.getByName("127.0.0.1"));
+	}
+
+	/**
+	 * Instantiates a server accepting "wss://" connections on <var>port</var>
+	 * of the loopback address.
+	 *
+	 * @param port
+	 *            the port, 0 for any free one
+	 * @param context
+	 *            holds the server's key and certificate
+	 * @throws IOException
+	 */
+	public LoopbackEchoServer(int port, SSLContext context) throws IOException {
+		this.serverSocket = context.getServerSocketFactory().createServerSocket(port, 1024,
+				InetAddress.getByName("127.0.0.1"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(args.length > 0 ? Integer.parseInt(args[0]) : 8081);
+		System.out.println("Echoing on ws://127.0.0.1:" + server.getPort() + "/");
+		server.run();
+	}
+
+	/**
+	 * Starts accepting connections on a daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "LoopbackEchoServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		running = true;
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread thread = new Thread(new Connection(socket), "LoopbackEchoServer " + socket.getPort());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections. Open ones stay until the client closes
+	 * them.
+	 */
+	public void shutdown() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of messages sent back so far
+	 */
+	public long getEchoedMessages() {
+		return echoed.get();
+	}
+
+	public long getFloodedMessages() {
+		return flooded.get();
+	}
+
+	public int getLastCloseCode() {
+		return lastCloseCode;
+	}
+
+	/**
+	 * Serves one client.
+	 */
+	private class Connection implements Runnable {
+		private final Socket socket;
+		private DataInputStream in;
+		private OutputStream out;
+
+		Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		public void run() {
+			try {
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+				out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+				Map<String, String> headers = readHeaders();
+				if (headers.containsKey("sec-websocket-key")) {
+					lastCloseCode = 0;
+					String path = headers.get(":path");
+					String extensions = headers.get("sec-websocket-extensions");
+					boolean deflate = path.startsWith("/deflate/") && extensions != null
+							&& extensions.contains("permessage-deflate");
+					handshake6455(headers, deflate);
+					if (path.startsWith("/flood/")) {
+						flood(Integer.parseInt(path.substring("/flood/".length())));
+					} else if (path.startsWith("/deflate/")) {
+						if (deflate) {
+							sendDeflated(Integer.parseInt(path.substring("/deflate/".length())));
+						}
+						echo6455();
+					} else if (path.startsWith("/raw/")) {
+						sendRaw(path.substring("/raw/".length()));
+						echo6455();
+					} else if (path.startsWith("/fragments/")) {
+						String[] fragments = path.substring("/fragments/".length()).split("/");
+						sendFragments(Integer.parseInt(fragments[0]), Integer.parseInt(fragments[1]));
+						echo6455();
+					} else {
+						echo6455();
+					}
+				} else {
+					handshakeDraft(headers);
+					echoSentinel();
+				}
+			} catch (EOFException e) {
+				// client went away
+			} catch (SocketException e) {
+				// client went away while we were writing
+			} catch (SSLException e) {
+				// client refused the certificate
+			} catch (Exception e) {
+				if (!socket.isClosed()) {
+					e.printStackTrace();
+				}
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+
+		// reads the request line and headers, keyed by lower-case name
+		private Map<String, String> readHeaders() throws IOException {
+			Map<String, String> headers = new HashMap<String, String>();
+			String line = readLine();
+			if (line == null) {
+				throw new EOFException();
+			}
+			headers.put(":path", line.split(" ")[1]);
+			while ((line = readLine()) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+			}
+			return headers;
+		}
+
+		private String readLine() throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1) {
+				if (c == '\n') {
+					int length = line.length();
+					return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line
+							.toString();
+				}
+				line.append((char) c);
+			}
+			return line.length() > 0 ? line.toString() : null;
+		}
+
+		private void handshake6455(Map<String, String> headers, boolean deflate) throws IOException,
+				NoSuchAlgorithmException {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			String accept = Base64.encodeBytes(sha1.digest((headers.get("sec-websocket-key") + Rfc6455Frames.ACCEPT_GUID)
+					.getBytes(WebSocketConnection.UTF8_CHARSET)));
+			write("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+					+ "Sec-WebSocket-Accept: " + accept + "\r\n"
+					+ (deflate ? "Sec-WebSocket-Extensions: permessage-deflate\r\n" : "") + padding(headers)
+					+ "\r\n");
+			out.flush();
+		}
+
+		// Draft 75, or Draft 76 if the request carries the two keys and key3
+		private void handshakeDraft(Map<String, String> headers) throws IOException, NoSuchAlgorithmException {
+			String location = "ws://" + headers.get("host") + headers.get(":path");
+			String key1 = headers.get("sec-websocket-key1");
+			String key2 = headers.get("sec-websocket-key2");
+			if (key1 == null || key2 == null) {
+				write("HTTP/1.1 101 Web Socket Protocol Handshake\r\nUpgrade: WebSocket\r\nConnection: Upgrade\r\n"
+						+ "WebSocket-Origin: " + headers.get("origin") + "\r\nWebSocket-Location: " + location
+						+ "\r\n" + padding(headers) + "\r\n");
+				out.flush();
+				return;
+			}
+			byte[] key3 = new byte[8];
+			in.readFully(key3);
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			md5.update(keyNumber(key1));
+			md5.update(keyNumber(key2));
+			md5.update(key3);
+			write("HTTP/1.1 101 WebSocket Protocol Handshake\r\nUpgrade: WebSocket\r\nConnection: Upgrade\r\n"
+					+ "Sec-WebSocket-Origin: " + headers.get("origin") + "\r\nSec-WebSocket-Location: " + location
+					+ "\r\n" + padding(headers) + "\r\n");
+			out.write(md5.digest());
+			out.flush();
+		}
+
+		// a header of the size the "/headers/" path asks for, or nothing
+		private String padding(Map<String, String> headers) {
+			String path = headers.get(":path");
+			if (!path.startsWith("/headers/")) {
+				return "";
+			}
+			char[] value = new char[Integer.parseInt(path.substring("/headers/".length()))];
+			Arrays.fill(value, 'x');
+			return "X-Padding: " + new String(value) + "\r\n";
+		}
+
+		// the digits of a Draft 76 key divided by its number of spaces, as
+		// four big-endian bytes
+		private byte[] keyNumber(String key) {
+			long digits = 0;
+			int spaces = 0;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				if (c >= '0' && c <= '9') {
+					digits = digits * 10 + (c - '0');
+				} else if (c == ' ') {
+					spaces++;
+				}
+			}
+			long number = spaces > 0 ? digits / spaces : 0;
+			return new byte[] { (byte) (number >> 24), (byte) (number >> 16), (byte) (number >> 8), (byte) number };
+		}
+
+		private void echoSentinel() throws IOException {
+			ByteArrayOutputStream message = new ByteArrayOutputStream();
+			while (true) {
+				int type = in.readUnsignedByte();
+				if (type == (WebSocketConnection.DATA_END_OF_FRAME & 0xFF)) {
+					// Draft 76 closing handshake
+					out.write(new byte[] { WebSocketConnection.DATA_END_OF_FRAME, 0 });
+					out.flush();
+					return;
+				}
+				message.reset();
+				int b;
+				while ((b = in.readUnsignedByte()) != (WebSocketConnection.DATA_END_OF_FRAME & 0xFF)) {
+					message.write(b);
+				}
+				out.write(WebSocketConnection.DATA_START_OF_FRAME);
+				message.writeTo(out);
+				out.write(WebSocketConnection.DATA_END_OF_FRAME);
+				echoed.incrementAndGet();
+				flushIfIdle();
+			}
+		}
+
+		private void echo6455() throws IOException {
+			byte[] payload = new byte[1024];
+			byte[] mask = new byte[4];
+			while (true) {
+				int b0 = in.readUnsignedByte();
+				int b1 = in.readUnsignedByte();
+				long length = b1 & 0x7F;
+				if (length == 126) {
+					length = in.readUnsignedShort();
+				} else if (length == 127) {
+					length = in.readLong();
+				}
+				if (length > Integer.MAX_VALUE) {
+					throw new IOException("Frame too large: " + length);
+				}
+				int n = (int) length;
+				if ((b1 & 0x80) != 0) {
+					in.readFully(mask);
+				}
+				if (payload.length < n) {
+					payload = new byte[Math.max(n, payload.length * 2)];
+				}
+				in.readFully(payload, 0, n);
+				if ((b1 & 0x80) != 0) {
+					for (int i = 0; i < n; i++) {
+						payload[i] ^= mask[i & 3];
+					}
+				}
+
+				int opcode = b0 & 0x0F;
+				if (opcode == Rfc6455Frames.OPCODE_PING) {
+					writeFrame(0x80 | Rfc6455Frames.OPCODE_PONG, payload, n);
+				} else if (opcode == Rfc6455Frames.OPCODE_CLOSE) {
+					if (n >= 2) {
+						lastCloseCode = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+					}
+					writeFrame(b0, payload, n);
+					out.flush();
+					return;
+				} else if (opcode != Rfc6455Frames.OPCODE_PONG) {
+					// data and continuation frames go back as they came
+					writeFrame(b0, payload, n);
+					if ((b0 & 0x80) != 0) {
+						echoed.incrementAndGet();
+					}
+				}
+				flushIfIdle();
+			}
+		}
+
+		// sends text messages until the client goes away
+		private void flood(int size) throws IOException {
+			byte[] payload = new byte[size];
+			Arrays.fill(payload, (byte) 'x');
+			while (true) {
+				writeFrame(0x80 | Rfc6455Frames.OPCODE_TEXT, payload, size);
+				out.flush();
+				flooded.incrementAndGet();
+			}
+		}
+
+		// sends one permessage-deflate text message of size bytes
+		private void sendDeflated(int size) throws IOException {
+			byte[] message = new byte[size];
+			Arrays.fill(message, (byte) 'x');
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+			deflater.setInput(message);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH)) > 0) {
+				compressed.write(chunk, 0, n);
+			}
+			deflater.end();
+			// without the 00 00 FF FF trailer of the sync flush
+			writeFrame(0x80 | 0x40 | Rfc6455Frames.OPCODE_TEXT, compressed.toByteArray(), compressed.size() - 4);
+			out.flush();
+		}
+
+		// sends the bytes spelled by hex as they are
+		private void sendRaw(String hex) throws IOException {
+			for (int i = 0; i + 1 < hex.length(); i += 2) {
+				out.write(Integer.parseInt(hex.substring(i, i + 2), 16));
+			}
+			out.flush();
+		}
+
+		// sends a text message in count fragments of size bytes
+		private void sendFragments(int size, int count) throws IOException {
+			byte[] payload = new byte[size];
+			Arrays.fill(payload, (byte) 'x');
+			for (int i = 0; i < count; i++) {
+				int opcode = i == 0 ? Rfc6455Frames.OPCODE_TEXT : Rfc6455Frames.OPCODE_CONTINUATION;
+				writeFrame((i == count - 1 ? 0x80 : 0) | opcode, payload, size);
+			}
+			out.flush();
+		}
+
+		// writes an unmasked frame
+		private void writeFrame(int b0, byte[] payload, int length) throws IOException {
+			out.write(b0);
+			if (length < 126) {
+				out.write(length);
+			} else if (length < 65536) {
+				out.write(126);
+				out.write(length >> 8);
+				out.write(length);
+			} else {
+				out.write(127);
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					out.write((int) ((long) length >> shift));
+				}
+			}
+			out.write(payload, 0, length);
+		}
+
+		// echoes go out in batches while the client keeps sending
+		private void flushIfIdle() throws IOException {
+			if (in.available() == 0) {
+				out.flush();
+			}
+		}
+
+		private void write(String text) throws IOException {
+			out.write(text.getBytes(WebSocketConnection.UTF8_CHARSET));
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+/**
+ * One operation to be timed by a {@link BenchmarkRunner}, e.g. parsing a
+ * buffer of frames or encoding a message.
+ *
+ * @author Animesh Kumar
+ */
+public abstract class Microbenchmark {
+
+	private final String name;
+	private final int size;
+
+	/**
+	 * @param name
+	 *            dotted name, stable across runs so results can be compared
+	 * @param size
+	 *            bytes (or characters) handled by one operation, used for
+	 *            the throughput
+	 */
+	protected Microbenchmark(String name, int size) {
+		this.name = name;
+		this.size = size;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Runs the operation <var>iterations</var> times.
+	 *
+	 * @return a value computed from the results, so the JIT cannot drop the
+	 *         work as unused
+	 * @throws Exception
+	 *             if the operation fails
+	 */
+	protected abstract long run(int iterations) throws Exception;
+}
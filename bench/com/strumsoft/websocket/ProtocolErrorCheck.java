@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.ProtocolException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Has a {@link LoopbackEchoServer} break RFC 6455 in the ways a client must
+ * not let pass, and checks that each fails the connection: the client
+ * reports a {@link ProtocolException}, delivers no message, sends a close
+ * frame with the right status code and closes once the server goes away.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.ProtocolErrorCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class ProtocolErrorCheck {
+
+	private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+	/**
+	 * Keeps what one socket went through.
+	 */
+	private static class ResultListener implements WebSocketListener {
+		final CountDownLatch closed = new CountDownLatch(1);
+		volatile int messages;
+		volatile Throwable error;
+
+		public void onOpen(WebSocketConnection socket) {
+		}
+
+		public void onMessage(WebSocketConnection socket, CharSequence message) {
+			messages++;
+		}
+
+		public void onBinaryMessage(WebSocketConnection socket, ByteBuffer message) {
+			messages++;
+		}
+
+		public void onClose(WebSocketConnection socket) {
+			closed.countDown();
+		}
+
+		public void onError(WebSocketConnection socket, Throwable t) {
+			error = t;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+
+		// a text frame announcing 1 GB, of which nothing follows
+		expect(loop, server, "/raw/817f0000000040000000", 1009, "a frame over the limit");
+		// 16 fragments of 128 KB, 2 MB in all
+		expect(loop, server, "/fragments/131072/16", 1009, "fragments adding up to more than the limit");
+		// "Hello" masked with 37 fa 21 3d, as a client would send it
+		expect(loop, server, "/raw/818537fa213d7f9f4d5158", 1002, "a masked frame");
+		expect(loop, server, "/raw/880103", 1002, "a close frame with a 1 byte payload");
+		expect(loop, server, "/raw/830161", 1002, "a reserved opcode");
+
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+
+	private static void expect(WebSocketEventLoop loop, LoopbackEchoServer server, String path, int code,
+			String what) throws Exception {
+		ResultListener listener = new ResultListener();
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:" + server.getPort()
+				+ path), WebSocketConnection.Draft.RFC6455, "broken", listener);
+		socket.setMaxMessageSize(MAX_MESSAGE_SIZE);
+		socket.connect();
+		boolean closed = listener.closed.await(WebSocketConnection.DEFAULT_CLOSE_TIMEOUT_MILLIS / 2,
+				TimeUnit.MILLISECONDS);
+		// the server notes the close frame before it closes its end
+		Check.check(closed && listener.error instanceof ProtocolException && listener.messages == 0
+				&& server.getLastCloseCode() == code, what + " fails the connection with " + code + ": "
+				+ listener.error + ", server got " + server.getLastCloseCode());
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WebSocketListener} for the checks: keeps copies of the messages,
+ * the errors, how often each callback ran and the threads they ran on.
+ *
+ * @author Animesh Kumar
+ */
+public class RecordingListener implements WebSocketListener {
+
+	private final CountDownLatch opened = new CountDownLatch(1);
+	private final CountDownLatch closed = new CountDownLatch(1);
+	private final List<String> messages = new ArrayList<String>();
+	private final List<Throwable> errors = new ArrayList<Throwable>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private int closeCount;
+	private CountDownLatch expected = new CountDownLatch(0);
+
+	public void onOpen(WebSocketConnection socket) {
+		called();
+		opened.countDown();
+	}
+
+	public void onMessage(WebSocketConnection socket, CharSequence message) {
+		synchronized (this) {
+			threads.add(Thread.currentThread());
+			messages.add(message.toString());
+		}
+		expected.countDown();
+	}
+
+	public void onBinaryMessage(WebSocketConnection socket, ByteBuffer message) {
+		called();
+	}
+
+	public void onClose(WebSocketConnection socket) {
+		synchronized (this) {
+			threads.add(Thread.currentThread());
+			closeCount++;
+		}
+		closed.countDown();
+	}
+
+	public void onError(WebSocketConnection socket, Throwable t) {
+		synchronized (this) {
+			threads.add(Thread.currentThread());
+			errors.add(t);
+		}
+	}
+
+	private synchronized void called() {
+		threads.add(Thread.currentThread());
+	}
+
+	/**
+	 * @return true if the socket opened within <var>millis</var>
+	 */
+	public boolean awaitOpen(long millis) throws InterruptedException {
+		return opened.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return true if the socket closed within <var>millis</var>
+	 */
+	public boolean awaitClose(long millis) throws InterruptedException {
+		return closed.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Makes {@link #awaitMessages(long)} wait for <var>count</var> more
+	 * messages.
+	 */
+	public void expect(int count) {
+		expected = new CountDownLatch(count);
+	}
+
+	/**
+	 * @return true if the expected messages arrived within <var>millis</var>
+	 */
+	public boolean awaitMessages(long millis) throws InterruptedException {
+		return expected.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized List<String> getMessages() {
+		return new ArrayList<String>(messages);
+	}
+
+	public synchronized List<Throwable> getErrors() {
+		return new ArrayList<Throwable>(errors);
+	}
+
+	/**
+	 * @return the threads the callbacks ran on, one entry per call
+	 */
+	public synchronized List<Thread> getThreads() {
+		return new ArrayList<Thread>(threads);
+	}
+
+	public synchronized int getCloseCount() {
+		return closeCount;
+	}
+}
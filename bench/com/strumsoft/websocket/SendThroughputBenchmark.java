@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+
+/**
+ * Measures how fast one thread can send small messages, the way the
+ * JavaScript bridge calls {@link WebSocketConnection#send(String)}: the rate
+ * at which the calls return, and the rate at which the messages reach a
+ * {@link LoopbackEchoServer}. The bridge needs 100,000 sends a second.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.SendThroughputBenchmark [messages]
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class SendThroughputBenchmark {
+
+	private static final String MESSAGE = "{\"op\":\"tick\",\"n\":42}";
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+
+		for (WebSocketConnection.Draft draft : WebSocketConnection.Draft.values()) {
+			RecordingListener listener = new RecordingListener() {
+				@Override
+				public void onMessage(WebSocketConnection socket, CharSequence message) {
+					// the echoes are not kept
+				}
+			};
+			WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:"
+					+ server.getPort() + "/"), draft, "sender", listener);
+			socket.connect();
+			if (!listener.awaitOpen(5000)) {
+				throw new IllegalStateException(draft + " did not open: " + listener.getErrors());
+			}
+			for (int round = 0; round < ROUNDS; round++) {
+				long echoed = server.getEchoedMessages();
+				long start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					socket.send(MESSAGE);
+				}
+				long returned = System.nanoTime() - start;
+				while (server.getEchoedMessages() - echoed < count) {
+					Thread.sleep(1);
+				}
+				long delivered = System.nanoTime() - start;
+				System.out.println(String.format("%-8s round %d: calls %,10d/s, delivered %,10d/s", draft, round,
+						count * 1000000000L / returned, count * 1000000000L / delivered));
+			}
+			socket.close();
+			listener.awaitClose(5000);
+		}
+
+		loop.shutdown();
+		server.shutdown();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connects a consumer with credit-based flow control to a
+ * {@link LoopbackEchoServer} that floods it, and checks that the reader
+ * stops once the credits are used up, so the server stalls on TCP flow
+ * control rather than the client buffering, and that it follows the grants
+ * of a slow consumer from then on with bounded heap.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.SlowConsumerCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class SlowConsumerCheck {
+
+	private static final int MESSAGE_SIZE = 1024;
+	private static final int INITIAL_CREDITS = 100;
+	private static final int GRANT = 50;
+	private static final int GRANTS = 20;
+	/**
+	 * Messages that may arrive beyond the credits: those of the read that
+	 * used up the last credit.
+	 */
+	private static final int SLACK = 256;
+
+	/**
+	 * Counts messages and keeps none of them.
+	 */
+	private static class CountingListener implements WebSocketListener {
+		final AtomicInteger received = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		volatile boolean opened;
+
+		public void onOpen(WebSocketConnection socket) {
+			opened = true;
+		}
+
+		public void onMessage(WebSocketConnection socket, CharSequence message) {
+			received.incrementAndGet();
+		}
+
+		public void onBinaryMessage(WebSocketConnection socket, ByteBuffer message) {
+			received.incrementAndGet();
+		}
+
+		public void onClose(WebSocketConnection socket) {
+		}
+
+		public void onError(WebSocketConnection socket, Throwable t) {
+			errors.incrementAndGet();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoopbackEchoServer server = new LoopbackEchoServer(0);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+		CountingListener listener = new CountingListener();
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI("ws://127.0.0.1:" + server.getPort()
+				+ "/flood/" + MESSAGE_SIZE), WebSocketConnection.Draft.RFC6455, "slow", listener);
+		socket.setFlowControl(INITIAL_CREDITS);
+		long heap = usedHeap();
+		socket.connect();
+
+		// the consumer takes nothing for a while
+		Thread.sleep(500);
+		long sent = server.getFloodedMessages();
+		Thread.sleep(500);
+		int received = listener.received.get();
+		long stalled = server.getFloodedMessages() - sent;
+		System.out.println(String.format("paused: %d received, server sent %d, %d more in the last 500 ms",
+				received, server.getFloodedMessages(), stalled));
+		Check.check(listener.opened, "opens");
+		Check.check(received >= INITIAL_CREDITS && received <= INITIAL_CREDITS + SLACK,
+				"the reader stops after the initial credits");
+		Check.check(stalled == 0, "the server stalls on TCP flow control");
+
+		// then a slow consumer grants a few at a time
+		int granted = INITIAL_CREDITS;
+		boolean bounded = true;
+		for (int i = 0; i < GRANTS; i++) {
+			socket.grantCredits(GRANT);
+			granted += GRANT;
+			Thread.sleep(50);
+			bounded &= listener.received.get() <= granted + SLACK;
+		}
+		// let the last grant's messages arrive
+		Thread.sleep(100);
+		received = listener.received.get();
+		long grown = usedHeap() - heap;
+		System.out.println(String.format("slow: %d granted, %d received, heap %+d KB", granted, received,
+				grown / 1024));
+		Check.check(received >= granted, "the reader resumes with every grant");
+		Check.check(bounded, "the reader never runs more than a read ahead of the grants");
+		Check.check(grown < 8 * 1024 * 1024, "the heap stays bounded");
+		Check.check(listener.errors.get() == 0, "no errors");
+
+		socket.close();
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
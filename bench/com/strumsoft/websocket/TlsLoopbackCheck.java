@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Round trip over "wss://" against a {@link LoopbackEchoServer} with a
+ * self-signed certificate for "localhost", which the client trusts:
+ * <ul>
+ * <li>with default settings, a connection to "localhost" opens and echoes
+ * messages of every size, one larger than a TLS record and one larger than
+ * the read buffer</li>
+ * <li>with default settings, a connection to "127.0.0.1", which the
+ * certificate does not name, fails</li>
+ * <li>with a {@link HostnameVerifier} of its own, the same connection opens</li>
+ * <li>with a {@link TlsSessionCache}, a reconnect resumes the session, and the
+ * session cache of the context keeps its own size and timeout; once it
+ * invalidated the session, the next connection runs a full handshake</li>
+ * </ul>
+ *
+ * <pre>
+ * java com.strumsoft.websocket.TlsLoopbackCheck
+ * </pre>
+ *
+ * The certificate is made with the JDK's keytool.
+ *
+ * @author Animesh Kumar
+ */
+public class TlsLoopbackCheck {
+
+	private static final char[] PASSWORD = "loopback".toCharArray();
+
+	public static void main(String[] args) throws Exception {
+		KeyStore keyStore = selfSigned();
+		KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(keyStore, PASSWORD);
+		SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keys.getKeyManagers(), null, null);
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(keyStore);
+		SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trust.getTrustManagers(), null);
+
+		LoopbackEchoServer server = new LoopbackEchoServer(0, serverContext);
+		server.start();
+		WebSocketEventLoop loop = new WebSocketEventLoop();
+		int port = server.getPort();
+
+		// default settings: the engine checks the certificate against the host
+		RecordingListener listener = new RecordingListener();
+		WebSocketConnection socket = connect(loop, "wss://localhost:" + port + "/", clientContext, null, listener);
+		if (Check.check(listener.awaitOpen(5000), "opens wss://localhost with the default host check")) {
+			String[] sent = { "hello", message(20000), message(70000) };
+			listener.expect(sent.length);
+			for (String message : sent) {
+				socket.send(message);
+			}
+			Check.check(listener.awaitMessages(5000) && listener.getMessages().equals(Arrays.asList(sent)),
+					"echoes 5 B, 20 KB and 70 KB messages over TLS");
+			socket.close();
+			Check.check(listener.awaitClose(5000), "closes");
+		}
+		Check.check(listener.getErrors().isEmpty(), "no errors on wss://localhost: " + listener.getErrors());
+
+		// default settings: the certificate does not name 127.0.0.1
+		listener = new RecordingListener();
+		connect(loop, "wss://127.0.0.1:" + port + "/", clientContext, null, listener);
+		Check.check(listener.awaitClose(5000) && listener.getMessages().isEmpty() && !listener.getErrors().isEmpty()
+				&& !listener.awaitOpen(0), "refuses wss://127.0.0.1, which the certificate does not name");
+
+		// a verifier of its own overrides the host check
+		listener = new RecordingListener();
+		socket = connect(loop, "wss://127.0.0.1:" + port + "/", clientContext, new HostnameVerifier() {
+			public boolean verify(String host, SSLSession session) {
+				return true;
+			}
+		}, listener);
+		if (Check.check(listener.awaitOpen(5000), "opens wss://127.0.0.1 with a custom HostnameVerifier")) {
+			listener.expect(1);
+			socket.send("again");
+			Check.check(listener.awaitMessages(5000) && listener.getMessages().equals(Arrays.asList("again")),
+					"echoes with a custom HostnameVerifier");
+			socket.close();
+			listener.awaitClose(5000);
+		}
+
+		// reconnects resume through the session cache, which leaves the
+		// context's own cache settings alone
+		int cacheSize = clientContext.getClientSessionContext().getSessionCacheSize();
+		int cacheTimeout = clientContext.getClientSessionContext().getSessionTimeout();
+		TlsSessionCache sessions = new TlsSessionCache(4, 60);
+		for (int i = 0; i < 2; i++) {
+			listener = new RecordingListener();
+			socket = new WebSocketConnection(loop, new URI("wss://localhost:" + port + "/"),
+					WebSocketConnection.Draft.RFC6455, "tls", listener);
+			socket.setSSLContext(clientContext, null);
+			socket.setTlsSessionCache(sessions);
+			socket.connect();
+			if (listener.awaitOpen(5000)) {
+				socket.close();
+				listener.awaitClose(5000);
+			}
+		}
+		Check.check(sessions.getFullHandshakes() == 1 && sessions.getResumedHandshakes() == 1,
+				"resumes the session on reconnect (" + sessions.getFullHandshakes() + " full, "
+						+ sessions.getResumedHandshakes() + " resumed)");
+		Check.check(clientContext.getClientSessionContext().getSessionCacheSize() == cacheSize
+				&& clientContext.getClientSessionContext().getSessionTimeout() == cacheTimeout,
+				"leaves the session cache settings of the context alone");
+
+		// what it invalidated is not resumed, though the context still has it
+		sessions.clear();
+		listener = new RecordingListener();
+		socket = new WebSocketConnection(loop, new URI("wss://localhost:" + port + "/"),
+				WebSocketConnection.Draft.RFC6455, "tls", listener);
+		socket.setSSLContext(clientContext, null);
+		socket.setTlsSessionCache(sessions);
+		socket.connect();
+		if (listener.awaitOpen(5000)) {
+			socket.close();
+			listener.awaitClose(5000);
+		}
+		Check.check(sessions.getFullHandshakes() == 2, "runs a full handshake after clear() ("
+				+ sessions.getFullHandshakes() + " full)");
+		StringBuilder json = new StringBuilder();
+		sessions.appendJson(json);
+		Check.check(json.indexOf("\"resumedHandshakes\":1,") > 0 && json.indexOf("\"fullHandshakes\":2,") > 0,
+				"reports the handshakes as JSON: " + json);
+
+		loop.shutdown();
+		server.shutdown();
+		Check.done();
+	}
+
+	private static WebSocketConnection connect(WebSocketEventLoop loop, String uri, SSLContext context,
+			HostnameVerifier verifier, RecordingListener listener) throws Exception {
+		WebSocketConnection socket = new WebSocketConnection(loop, new URI(uri), WebSocketConnection.Draft.RFC6455,
+				"tls", listener);
+		socket.setSSLContext(context, verifier);
+		socket.connect();
+		return socket;
+	}
+
+	private static String message(int size) {
+		char[] text = new char[size];
+		Arrays.fill(text, 'z');
+		return new String(text);
+	}
+
+	// a key and certificate for "localhost", valid for two days
+	private static KeyStore selfSigned() throws Exception {
+		File file = File.createTempFile("loopback", ".p12");
+		file.delete();
+		try {
+			String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+			List<String> command = Arrays.asList(keytool, "-genkeypair", "-alias", "loopback", "-keyalg", "RSA",
+					"-keysize", "2048", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost", "-validity", "2",
+					"-storetype", "PKCS12", "-keystore", file.getPath(), "-storepass", new String(PASSWORD),
+					"-keypass", new String(PASSWORD));
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			InputStream output = process.getInputStream();
+			while (output.read() != -1) {
+				// keytool's chatter
+			}
+			if (process.waitFor() != 0) {
+				throw new IllegalStateException("keytool failed: " + command);
+			}
+			KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			InputStream in = new FileInputStream(file);
+			try {
+				keyStore.load(in, PASSWORD);
+			} finally {
+				in.close();
+			}
+			return keyStore;
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import com.strumsoft.websocket.BenchmarkRunner;
+import com.strumsoft.websocket.FramingBenchmark;
+import com.strumsoft.websocket.Microbenchmark;
+
+/**
+ * Benchmarks the encoding of messages into the dispatch script, one
+ * {@link BridgeDispatcher#appendEvent(StringBuilder, String, String, CharSequence)}
+ * per operation, for plain ASCII, for JSON full of quotes that need escaping
+ * and for text outside ASCII. The ASCII case is run with the text both as a
+ * String and as the CharBuffer the frame parser hands over.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.BridgeEncodingBenchmark [output.json] [roundMillis] [warmUpRounds] [rounds]
+ * </pre>
+ *
+ * With <tt>all</tt> in front of the arguments, {@link FramingBenchmark} is
+ * run too, so one file holds the results of every suite.
+ *
+ * @author Animesh Kumar
+ */
+public class BridgeEncodingBenchmark {
+
+	private static final int[] SIZES = { 16, 128, 1024, 16384, 65536 };
+
+	private static final String TARGET = "WEBSOCKET.1";
+
+	public static void main(String[] args) throws Exception {
+		boolean all = args.length > 0 && "all".equals(args[0]);
+		if (all) {
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+		BenchmarkRunner runner = BenchmarkRunner.fromArgs(args);
+		if (all) {
+			FramingBenchmark.run(runner);
+		}
+		run(runner);
+		runner.writeJson(args);
+	}
+
+	/**
+	 * Runs all benchmarks of this suite with <var>runner</var>.
+	 */
+	public static void run(BenchmarkRunner runner) throws Exception {
+		for (int size : SIZES) {
+			String ascii = repeat("abcdefghij", size);
+			runner.run(encode("bridge.encode.ascii", ascii));
+			runner.run(encode("bridge.encode.ascii.charbuffer", CharBuffer.wrap(ascii.toCharArray())));
+			runner.run(encode("bridge.encode.escaped", repeat("{\"k\":\"v\\n\"}", size)));
+			runner.run(encode("bridge.encode.unicode", repeat("gr\u00fc\u00dfe \u2028\u00e9", size)));
+		}
+	}
+
+	/**
+	 * One operation appends the event carrying <var>text</var> to a reused
+	 * builder.
+	 */
+	static Microbenchmark encode(String name, final CharSequence text) {
+		final StringBuilder script = new StringBuilder();
+		return new Microbenchmark(name, text.length()) {
+			@Override
+			protected long run(int iterations) {
+				long sum = 0;
+				for (int i = 0; i < iterations; i++) {
+					script.setLength(0);
+					BridgeDispatcher.appendEvent(script, TARGET, WebSocket.EVENT_ON_MESSAGE, text);
+					sum += script.length();
+				}
+				return sum;
+			}
+		};
+	}
+
+	// pattern repeated up to size characters
+	private static String repeat(String pattern, int size) {
+		StringBuilder text = new StringBuilder(size);
+		while (text.length() < size) {
+			text.append(pattern, 0, Math.min(pattern.length(), size - text.length()));
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.strumsoft.websocket.Check;
+
+/**
+ * Checks that a {@link BridgeTracer} times a message up to the delivery that
+ * took it into its script: a burst larger than one batch goes out in several
+ * deliveries, and the traces of the messages left for a later one must stay
+ * open until that one runs.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.BridgeTracerCheck
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class BridgeTracerCheck {
+
+	private static final int MESSAGES = 100;
+	private static final int MAX_BATCH_SIZE = 1024;
+	private static final Pattern TRACE = Pattern.compile("\"_trace\":(\\d+)");
+	private static final Pattern TRACED = Pattern.compile("\"traced\":(\\d+)");
+
+	/**
+	 * Keeps the scripts, and runs the posted delivery only when told to.
+	 */
+	static class StepTransport implements BridgeTransport {
+		private Runnable pending;
+		final List<String> scripts = new ArrayList<String>();
+
+		public void post(Runnable task, long delayMillis) {
+			pending = task;
+		}
+
+		public void cancel(Runnable task) {
+			if (pending == task) {
+				pending = null;
+			}
+		}
+
+		public void evaluate(String script) {
+			scripts.add(script);
+		}
+
+		boolean runOne() {
+			Runnable task = pending;
+			pending = null;
+			if (task != null) {
+				task.run();
+			}
+			return task != null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		StepTransport transport = new StepTransport();
+		BridgeDispatcher dispatcher = new BridgeDispatcher(transport);
+		dispatcher.setBatchLimits(0, MAX_BATCH_SIZE);
+		BridgeTracer tracer = new BridgeTracer(1);
+		dispatcher.setTracer(tracer);
+		WebSocket socket = DispatchAllocationBenchmark.newSocket(dispatcher);
+
+		StringBuilder message = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			message.append('x');
+		}
+		for (int i = 0; i < MESSAGES; i++) {
+			dispatcher.onMessage(socket, message);
+		}
+
+		Check.check(transport.runOne(), "a delivery is posted");
+		List<Integer> first = traceIds(transport.scripts.get(0));
+		System.out.println("first delivery took " + first.size() + " of " + MESSAGES + " messages");
+		Check.check(first.size() > 0 && first.size() < MESSAGES, "the burst does not fit one delivery");
+
+		// answer for every message; only those delivered may complete
+		for (int id = 0; id < MESSAGES; id++) {
+			tracer.called(id);
+		}
+		Check.check(traced(tracer) == first.size(), "only the traces of the delivered messages complete, "
+				+ traced(tracer) + " did");
+
+		while (transport.runOne()) {
+			// the rest of the burst
+		}
+		List<Integer> rest = new ArrayList<Integer>();
+		for (int i = 1; i < transport.scripts.size(); i++) {
+			rest.addAll(traceIds(transport.scripts.get(i)));
+		}
+		Check.check(first.size() + rest.size() == MESSAGES, "every message is delivered with its trace");
+		for (int id : rest) {
+			tracer.called(id);
+		}
+		Check.check(traced(tracer) == MESSAGES, "the later traces complete after their delivery, "
+				+ traced(tracer) + " of " + MESSAGES + " did");
+		Check.done();
+	}
+
+	private static List<Integer> traceIds(String script) {
+		List<Integer> ids = new ArrayList<Integer>();
+		Matcher m = TRACE.matcher(script);
+		while (m.find()) {
+			ids.add(Integer.valueOf(m.group(1)));
+		}
+		return ids;
+	}
+
+	private static long traced(BridgeTracer tracer) {
+		Matcher m = TRACED.matcher(tracer.getStats());
+		return m.find() ? Long.parseLong(m.group(1)) : -1;
+	}
+}
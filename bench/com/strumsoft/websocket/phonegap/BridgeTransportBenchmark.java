@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the dispatch path from a socket to a {@link BridgeTransport}: how
+ * many messages per second get through, and how long each message takes from
+ * {@link BridgeDispatcher#dispatchMessage(String, CharSequence)} until the script
+ * carrying it has been handed to the transport.
+ *
+ * Run from the command line it compares batch settings over an
+ * {@link InMemoryTransport}:
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.BridgeTransportBenchmark [messages] [size] [rate] [cost]
+ * </pre>
+ *
+ * where <var>rate</var> is the number of messages offered per second, 0 for
+ * as fast as possible, and <var>cost</var> the microseconds each script
+ * keeps the stand-in UI thread busy, to model the fixed price of a bridge
+ * crossing. On a device, {@link #run(BridgeTransport, long, int, int, int, int)}
+ * can be called with a {@link LoadUrlTransport} or an
+ * {@link EvaluateJavascriptTransport}; both hand the script over
+ * asynchronously, so there the latency ends when the WebView has queued it.
+ *
+ * @author Animesh Kumar
+ */
+public class BridgeTransportBenchmark {
+
+	private static final String TARGET = "WEBSOCKET.1";
+
+	/**
+	 * Passes scripts on and notes when each message in them got there.
+	 */
+	private static class TimingTransport implements BridgeTransport {
+		private final BridgeTransport delegate;
+		private final long[] sent;
+		private final long[] received;
+		private final CountDownLatch done;
+
+		TimingTransport(BridgeTransport delegate, int messages) {
+			this.delegate = delegate;
+			this.sent = new long[messages];
+			this.received = new long[messages];
+			this.done = new CountDownLatch(messages);
+		}
+
+		public void post(Runnable task, long delayMillis) {
+			delegate.post(task, delayMillis);
+		}
+
+		public void cancel(Runnable task) {
+			delegate.cancel(task);
+		}
+
+		public void evaluate(String script) {
+			delegate.evaluate(script);
+			long now = System.nanoTime();
+			// every message starts with 'm' and its sequence number
+			int i = 0;
+			while ((i = script.indexOf("'m", i)) >= 0) {
+				int end = script.indexOf(';', i);
+				int seq = Integer.parseInt(script.substring(i + 2, end));
+				received[seq] = now;
+				done.countDown();
+				i = end;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int rate = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		final long cost = (args.length > 3 ? Integer.parseInt(args[3]) : 200) * 1000L;
+
+		System.out.println("messages=" + messages + " size=" + size + " rate=" + (rate == 0 ? "max" : rate + "/s")
+				+ " cost=" + cost / 1000 + "us");
+		long[][] settings = { { 0, 1 }, { 0, BridgeDispatcher.DEFAULT_MAX_BATCH_SIZE },
+				{ BridgeDispatcher.DEFAULT_MAX_DELAY, BridgeDispatcher.DEFAULT_MAX_BATCH_SIZE } };
+		String[] names = { "flush on every message", "batched, no delay", "batched, 16 ms" };
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < settings.length; i++) {
+				InMemoryTransport transport = new InMemoryTransport() {
+					@Override
+					protected void onScript(String script) {
+						long until = System.nanoTime() + cost;
+						while (System.nanoTime() < until) {
+							// busy, like a WebView evaluating
+						}
+					}
+				};
+				String result = run(transport, settings[i][0], (int) settings[i][1], messages, size, rate);
+				transport.shutdown();
+				if (round > 0) {
+					System.out.println(names[i] + ": " + result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends <var>messages</var> messages of <var>size</var> characters through
+	 * a dispatcher over <var>transport</var>.
+	 *
+	 * @return throughput and latency percentiles, one line of text
+	 */
+	public static String run(BridgeTransport transport, long maxDelay, int maxBatchSize, int messages, int size,
+			int rate) throws InterruptedException {
+		TimingTransport timing = new TimingTransport(transport, messages);
+		BridgeDispatcher dispatcher = new BridgeDispatcher(timing);
+		dispatcher.setBatchLimits(maxDelay, maxBatchSize);
+
+		String[] payloads = new String[messages];
+		char[] filler = new char[size];
+		Arrays.fill(filler, 'x');
+		for (int i = 0; i < messages; i++) {
+			String head = "m" + i + ";";
+			payloads[i] = head + new String(filler, 0, Math.max(0, size - head.length()));
+		}
+
+		long interval = rate > 0 ? 1000000000L / rate : 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			if (interval > 0) {
+				long due = start + i * interval;
+				long now;
+				while ((now = System.nanoTime()) < due) {
+					LockSupport.parkNanos(due - now);
+				}
+			}
+			timing.sent[i] = System.nanoTime();
+			dispatcher.dispatchMessage(TARGET, payloads[i]);
+		}
+		if (!timing.done.await(60, TimeUnit.SECONDS)) {
+			return "timed out";
+		}
+		long end = 0;
+		long[] latencies = new long[messages];
+		for (int i = 0; i < messages; i++) {
+			latencies[i] = timing.received[i] - timing.sent[i];
+			end = Math.max(end, timing.received[i]);
+		}
+		Arrays.sort(latencies);
+		double seconds = (end - start) / 1e9;
+		return String.format("%.0f msgs/s, latency p50 %.3f ms, p99 %.3f ms, max %.3f ms", messages / seconds,
+				latencies[messages / 2] / 1e6, latencies[(int) (messages * 0.99)] / 1e6,
+				latencies[messages - 1] / 1e6);
+	}
+}
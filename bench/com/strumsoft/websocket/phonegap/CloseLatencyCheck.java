@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.strumsoft.websocket.Check;
+
+/**
+ * Floods a {@link BridgeDispatcher} with messages from one socket while the
+ * stand-in UI thread takes a few milliseconds per script, so the data lane
+ * stays full and sheds, and closes another socket in the middle of it. Checks
+ * that the close event arrives within a bound, exactly once and after the
+ * socket's own messages, and that the messages waiting stay bounded.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.CloseLatencyCheck [max latency in ms]
+ * </pre>
+ *
+ * @author Animesh Kumar
+ */
+public class CloseLatencyCheck {
+
+	private static final int DATA_LANE_LIMIT = 1000;
+	private static final long SCRIPT_COST_MILLIS = 5;
+	private static final long FLOOD_MILLIS = 2000;
+
+	/**
+	 * Takes its time over each script and notes when the close event came.
+	 */
+	private static class SlowTransport extends InMemoryTransport {
+		final CountDownLatch closed = new CountDownLatch(1);
+		final AtomicInteger closeEvents = new AtomicInteger();
+		volatile long closedNanos;
+		volatile boolean messageAfterClose;
+
+		@Override
+		protected void onScript(String script) {
+			int close = script.indexOf("{\"_event\":\"onclose\",\"_target\":\"closing\"");
+			if (close >= 0) {
+				closedNanos = System.nanoTime();
+				closeEvents.incrementAndGet();
+				closed.countDown();
+			}
+			if (closeEvents.get() > 0
+					&& script.lastIndexOf("{\"_event\":\"onmessage\",\"_target\":\"closing\"") > (close >= 0 ? close : -1)) {
+				messageAfterClose = true;
+			}
+			try {
+				Thread.sleep(SCRIPT_COST_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		long maxLatency = args.length > 0 ? Long.parseLong(args[0]) : 250;
+		final SlowTransport transport = new SlowTransport();
+		final BridgeDispatcher dispatcher = new BridgeDispatcher(transport);
+		dispatcher.setDataLaneLimit(DATA_LANE_LIMIT);
+		char[] text = new char[100];
+		Arrays.fill(text, 'x');
+		final String message = new String(text);
+
+		final long floodEnd = System.currentTimeMillis() + FLOOD_MILLIS;
+		Thread flood = new Thread(new Runnable() {
+			public void run() {
+				while (System.currentTimeMillis() < floodEnd) {
+					dispatcher.dispatchMessage("flooding", message);
+				}
+			}
+		});
+		flood.start();
+
+		Thread.sleep(FLOOD_MILLIS / 4);
+		for (int i = 0; i < 10; i++) {
+			dispatcher.dispatchMessage("closing", message);
+		}
+		long start = System.nanoTime();
+		dispatcher.dispatchEvent("closing", WebSocket.EVENT_ON_CLOSE, WebSocket.BLANK_MESSAGE);
+		boolean delivered = transport.closed.await(5, TimeUnit.SECONDS);
+		long latency = (transport.closedNanos - start) / 1000000;
+
+		int maxPending = 0;
+		while (flood.isAlive()) {
+			maxPending = Math.max(maxPending, stat(dispatcher, "pendingData"));
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+		long shed = stat(dispatcher, "shed");
+		System.out.println(String.format("close event after %d ms, %d messages shed, at most %d waiting", latency,
+				shed, maxPending));
+		Check.check(delivered && latency <= maxLatency, "the close event arrives within " + maxLatency
+				+ " ms of a flood");
+		Check.check(transport.closeEvents.get() == 1, "the close event arrives once");
+		Check.check(!transport.messageAfterClose, "no message of the socket arrives after its close");
+		Check.check(shed > 0, "the data lane sheds under pressure");
+		Check.check(maxPending <= 2 * DATA_LANE_LIMIT, "the messages waiting stay bounded");
+
+		transport.shutdown();
+		Check.done();
+	}
+
+	private static int stat(BridgeDispatcher dispatcher, String name) {
+		Matcher matcher = Pattern.compile("\"" + name + "\":(\\d+)").matcher(dispatcher.getLaneStats());
+		return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+/**
+ * Measures how many bytes the receive path allocates per message, from the
+ * decoded text a socket hands to its listener, through the
+ * {@link BridgeDispatcher}, to the script handed to the
+ * {@link BridgeTransport}. The text is decoded the way the frame parser does
+ * it, into one reused buffer. Everything runs on the calling thread, so the
+ * thread's allocation counter sees all of it, per-batch costs included.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.DispatchAllocationBenchmark [messages] [size] [limit]
+ * </pre>
+ *
+ * prints the bytes allocated per message and the throughput. If a
+ * <var>limit</var> in bytes per message is given, it exits with status 1 when
+ * the path allocates more, so a build can fail on a regression. Needs a JVM
+ * whose {@link java.lang.management.ThreadMXBean} counts allocations (HotSpot,
+ * OpenJ9); Android's doesn't.
+ *
+ * @author Animesh Kumar
+ */
+public class DispatchAllocationBenchmark {
+
+	/**
+	 * Messages per read, about what a 16K read holds for small messages.
+	 */
+	private static final int MESSAGES_PER_READ = 64;
+
+	/**
+	 * Runs deliveries on the calling thread when told to, and throws the
+	 * scripts away.
+	 */
+	static class SameThreadTransport implements BridgeTransport {
+		private Runnable pending;
+		long scripts;
+		long characters;
+
+		public void post(Runnable task, long delayMillis) {
+			pending = task;
+		}
+
+		public void cancel(Runnable task) {
+			if (pending == task) {
+				pending = null;
+			}
+		}
+
+		public void evaluate(String script) {
+			scripts++;
+			characters += script.length();
+		}
+
+		void runPending() {
+			// a delivery posts the next one when the batch did not fit
+			Runnable task;
+			while ((task = pending) != null) {
+				pending = null;
+				task.run();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		double limit = args.length > 2 ? Double.parseDouble(args[2]) : -1;
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		SameThreadTransport transport = new SameThreadTransport();
+		BridgeDispatcher dispatcher = new BridgeDispatcher(transport);
+		WebSocket socket = newSocket(dispatcher);
+		byte[] payload = new byte[size];
+		Arrays.fill(payload, (byte) 'x');
+		ByteBuffer message = ByteBuffer.wrap(payload);
+
+		// warm up, so that the buffers have grown and the code is compiled
+		run(dispatcher, socket, transport, message, messages);
+
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		int count = run(dispatcher, socket, transport, message, messages);
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		double perMessage = (double) allocated / count;
+		System.out.println(String.format("size=%d: %.1f bytes/message, %.0f msgs/s, %d scripts", size, perMessage,
+				count / (elapsed / 1e9), transport.scripts));
+		if (limit >= 0 && perMessage > limit) {
+			System.out.println("allocates more than " + limit + " bytes/message");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Decodes <var>message</var> and hands it to the dispatcher over and over
+	 * until <var>messages</var> messages went through, delivering the batch
+	 * after every {@link #MESSAGES_PER_READ}, when the dispatcher asks for it.
+	 *
+	 * @return the number of messages dispatched
+	 */
+	static int run(BridgeDispatcher dispatcher, WebSocket socket, SameThreadTransport transport,
+			ByteBuffer message, int messages) {
+		CharsetDecoder decoder = Charset.forName(WebSocket.UTF8_CHARSET).newDecoder();
+		CharBuffer text = CharBuffer.allocate(message.capacity());
+		int count = 0;
+		while (count < messages) {
+			for (int i = 0; i < MESSAGES_PER_READ; i++) {
+				message.clear();
+				text.clear();
+				decoder.reset();
+				decoder.decode(message, text, true);
+				decoder.flush(text);
+				text.flip();
+				dispatcher.onMessage(socket, text);
+			}
+			count += MESSAGES_PER_READ;
+			transport.runPending();
+		}
+		return count;
+	}
+
+	static WebSocket newSocket(BridgeDispatcher dispatcher) throws URISyntaxException {
+		// never connected, so it needs no event loop
+		return new WebSocket(dispatcher, null, new URI("ws://localhost/"), WebSocket.Draft.RFC6455, "WEBSOCKET.1");
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.strumsoft.websocket.Check;
+
+/**
+ * Checks that the receive path allocates next to nothing per message beyond
+ * the scripts themselves, which a {@link BridgeTransport} needs as strings.
+ * Runs the loop of {@link DispatchAllocationBenchmark} for a few message
+ * sizes, subtracts what the strings of the scripts take on this VM, and
+ * fails if more than a few bytes per message are left.
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.DispatchAllocationCheck [max bytes per message]
+ * </pre>
+ *
+ * Needs a VM whose {@link java.lang.management.ThreadMXBean} counts
+ * allocations.
+ *
+ * @author Animesh Kumar
+ */
+public class DispatchAllocationCheck {
+
+	private static final int MESSAGES = 200000;
+	private static final int[] SIZES = { 16, 100, 1000 };
+
+	public static void main(String[] args) throws Exception {
+		double limit = args.length > 0 ? Double.parseDouble(args[0]) : 16;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		for (int size : SIZES) {
+			DispatchAllocationBenchmark.SameThreadTransport transport = new DispatchAllocationBenchmark.SameThreadTransport();
+			BridgeDispatcher dispatcher = new BridgeDispatcher(transport);
+			WebSocket socket = DispatchAllocationBenchmark.newSocket(dispatcher);
+			byte[] payload = new byte[size];
+			Arrays.fill(payload, (byte) 'x');
+			ByteBuffer message = ByteBuffer.wrap(payload);
+			DispatchAllocationBenchmark.run(dispatcher, socket, transport, message, MESSAGES);
+
+			long scripts = transport.scripts;
+			long characters = transport.characters;
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			int count = DispatchAllocationBenchmark.run(dispatcher, socket, transport, message, MESSAGES);
+			allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+			scripts = transport.scripts - scripts;
+			characters = transport.characters - characters;
+
+			long scriptBytes = scripts * stringBytes(threads, thread, (int) (characters / scripts));
+			double perMessage = (double) (allocated - scriptBytes) / count;
+			System.out.println(String.format("size=%d: %.1f bytes/message, %.1f of them besides the scripts", size,
+					(double) allocated / count, perMessage));
+			Check.check(perMessage <= limit, "size " + size + ": at most " + limit
+					+ " bytes per message besides the scripts");
+		}
+		Check.done();
+	}
+
+	/**
+	 * @return the bytes it takes to make a string of <var>length</var>
+	 *         characters of script out of a builder
+	 */
+	private static long stringBytes(com.sun.management.ThreadMXBean threads, long thread, int length) {
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append('x');
+		}
+		long least = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			builder.toString();
+			least = Math.min(least, threads.getThreadAllocatedBytes(thread) - before);
+		}
+		return least;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import com.strumsoft.websocket.LoopbackEchoServer;
+
+/**
+ * Drives sockets of a {@link WebSocketFactory} against an echo server and
+ * reports throughput, round-trip latency and heap usage. The factory has no
+ * WebView; its bridge is an {@link InMemoryTransport}, so every message takes
+ * the full way from the socket through the {@link BridgeDispatcher} into a
+ * dispatch script, where the round trip ends. Round trips therefore include
+ * the time a message waits for its batch (see
+ * {@link WebSocketFactory#setBatchLimits(long, int)}).
+ *
+ * <pre>
+ * java com.strumsoft.websocket.phonegap.LoopbackLoadGenerator [connections] [size] [rate] [seconds] [draft] [url]
+ * </pre>
+ *
+ * <ul>
+ * <li><var>connections</var>: number of sockets, 10 by default</li>
+ * <li><var>size</var>: characters per message, 100 by default</li>
+ * <li><var>rate</var>: messages per second and socket, 1000 by default; 0
+ * keeps one message in flight per socket and sends the next as soon as it
+ * is back</li>
+ * <li><var>seconds</var>: length of the measurement, 10 by default, after 2
+ * seconds of warm-up</li>
+ * <li><var>draft</var>: RFC6455 (the default), DRAFT76 or DRAFT75</li>
+ * <li><var>url</var>: the echo server; a {@link LoopbackEchoServer} is
+ * started if none is given</li>
+ * </ul>
+ *
+ * @author Animesh Kumar
+ */
+public class LoopbackLoadGenerator {
+
+	private static final long WARM_UP_NANOS = 2000000000L;
+
+	private static final String MESSAGE_EVENT = "{\"_event\":\"" + WebSocket.EVENT_ON_MESSAGE
+			+ "\",\"_target\":\"";
+	private static final String OPEN_EVENT = "{\"_event\":\"" + WebSocket.EVENT_ON_OPEN + "\",\"_target\":\"";
+	private static final String CLOSE_EVENT = "{\"_event\":\"" + WebSocket.EVENT_ON_CLOSE;
+	private static final String DATA = "\"_data\":'";
+
+	private final int size;
+	private final int rate;
+	private final char[] padding;
+
+	private final Map<String, WebSocket> sockets = new HashMap<String, WebSocket>();
+	private volatile int opened;
+	private volatile int closed;
+	private volatile boolean running = true;
+	private volatile boolean recording;
+
+	// written by the transport's thread only
+	private long received;
+	private long[] latencies = new long[1 << 16];
+	private int latencyCount;
+
+	private LoopbackLoadGenerator(int size, int rate) {
+		this.size = size;
+		this.rate = rate;
+		this.padding = new char[size];
+		Arrays.fill(padding, 'x');
+	}
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int rate = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		WebSocket.Draft draft = args.length > 4 ? WebSocket.Draft.valueOf(args[4]) : WebSocket.Draft.RFC6455;
+		String url = args.length > 5 ? args[5] : null;
+
+		LoopbackEchoServer server = null;
+		if (url == null) {
+			server = new LoopbackEchoServer(0);
+			server.start();
+			url = "ws://127.0.0.1:" + server.getPort() + "/echo";
+		}
+		System.out.println(new LoopbackLoadGenerator(size, rate).run(url, draft, connections, seconds));
+		if (server != null) {
+			server.shutdown();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Connects <var>connections</var> sockets to <var>url</var>, loads them
+	 * for <var>seconds</var> after the warm-up and closes them again.
+	 *
+	 * @return the results, one line of text
+	 */
+	private String run(String url, WebSocket.Draft draft, int connections, int seconds) throws InterruptedException {
+		InMemoryTransport transport = new InMemoryTransport() {
+			@Override
+			protected void onScript(String script) {
+				LoopbackLoadGenerator.this.onScript(script);
+			}
+		};
+		WebSocketFactory factory = new WebSocketFactory();
+		factory.setBridgeTransport(transport);
+		factory.setDefaultDraft(draft);
+		synchronized (sockets) {
+			for (int i = 0; i < connections; i++) {
+				WebSocket socket = factory.getInstance(url, draft);
+				if (socket == null) {
+					return "could not create a socket for " + url;
+				}
+				sockets.put(socket.getId(), socket);
+			}
+		}
+		long deadline = System.nanoTime() + 10000000000L;
+		while (opened < connections && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		if (opened < connections) {
+			return "only " + opened + " of " + connections + " sockets opened";
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		long start = System.nanoTime();
+		long recordFrom = start + WARM_UP_NANOS;
+		long end = recordFrom + seconds * 1000000000L;
+		long interval = rate > 0 ? 1000000000L / rate : 0;
+		long nextTick = start;
+		long maxHeap = 0;
+		long nextSample = start;
+		long recordStart = 0;
+		while (true) {
+			long now = System.nanoTime();
+			if (!recording && now >= recordFrom) {
+				recordStart = now;
+				recording = true;
+			}
+			if (now >= end) {
+				break;
+			}
+			if (now >= nextSample) {
+				maxHeap = Math.max(maxHeap, runtime.totalMemory() - runtime.freeMemory());
+				nextSample = now + 100000000L;
+			}
+			if (interval > 0 && now >= nextTick) {
+				for (WebSocket socket : sockets.values()) {
+					socket.send(message());
+				}
+				nextTick += interval;
+			} else {
+				LockSupport.parkNanos(Math.min(interval > 0 ? nextTick - now : 100000000L, nextSample - now));
+			}
+		}
+		recording = false;
+		running = false;
+		long elapsed = System.nanoTime() - recordStart;
+
+		// hand the results over from the transport's thread
+		final long[][] results = new long[1][];
+		final long[] count = new long[1];
+		transport.post(new Runnable() {
+			public void run() {
+				synchronized (results) {
+					results[0] = Arrays.copyOf(latencies, latencyCount);
+					count[0] = received;
+					results.notify();
+				}
+			}
+		}, 0);
+		synchronized (results) {
+			while (results[0] == null) {
+				results.wait();
+			}
+		}
+		for (WebSocket socket : sockets.values()) {
+			socket.close();
+		}
+		deadline = System.nanoTime() + 5000000000L;
+		while (closed < connections && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		System.gc();
+		long heapAfterGc = runtime.totalMemory() - runtime.freeMemory();
+		transport.shutdown();
+
+		long[] sorted = results[0];
+		Arrays.sort(sorted);
+		double secondsElapsed = elapsed / 1e9;
+		return String.format("connections=%d size=%d rate=%s draft=%s: %.0f msgs/s, %.2f MB/s, "
+				+ "rtt p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, heap max %d MB, after gc %d MB", connections, size,
+				rate == 0 ? "closed-loop" : rate + "/s", draft, count[0] / secondsElapsed, count[0] * (double) size
+						/ secondsElapsed / (1024 * 1024), percentile(sorted, 0.5), percentile(sorted, 0.99),
+				percentile(sorted, 0.999), maxHeap / (1024 * 1024), heapAfterGc / (1024 * 1024));
+	}
+
+	// a message starting with the time it was sent, padded to size
+	private String message() {
+		StringBuilder message = new StringBuilder(size + 20);
+		message.append(System.nanoTime()).append(';');
+		if (message.length() < size) {
+			message.append(padding, 0, size - message.length());
+		}
+		return message.toString();
+	}
+
+	// called on the transport's thread with every dispatch script
+	private void onScript(String script) {
+		long now = System.nanoTime();
+		int i = 0;
+		while ((i = script.indexOf("{\"_event\":\"", i)) >= 0) {
+			if (script.startsWith(MESSAGE_EVENT, i)) {
+				int idStart = i + MESSAGE_EVENT.length();
+				int idEnd = script.indexOf('"', idStart);
+				int sentStart = script.indexOf(DATA, idEnd) + DATA.length();
+				int sentEnd = script.indexOf(';', sentStart);
+				if (recording) {
+					record(now - Long.parseLong(script.substring(sentStart, sentEnd)));
+				}
+				if (rate == 0 && running) {
+					socket(script.substring(idStart, idEnd)).send(message());
+				}
+				i = sentEnd;
+			} else if (script.startsWith(OPEN_EVENT, i)) {
+				int idStart = i + OPEN_EVENT.length();
+				int idEnd = script.indexOf('"', idStart);
+				opened++;
+				if (rate == 0) {
+					socket(script.substring(idStart, idEnd)).send(message());
+				}
+				i = idEnd;
+			} else if (script.startsWith(CLOSE_EVENT, i)) {
+				closed++;
+				i += CLOSE_EVENT.length();
+			} else {
+				i++;
+			}
+		}
+	}
+
+	private WebSocket socket(String id) {
+		synchronized (sockets) {
+			return sockets.get(id);
+		}
+	}
+
+	private void record(long latency) {
+		if (latencyCount == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		}
+		latencies[latencyCount++] = latency;
+		received++;
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+	}
+}
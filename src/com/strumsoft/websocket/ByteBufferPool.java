@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The <tt>ByteBufferPool</tt> hands out direct {@link ByteBuffer}s in a few
+ * power-of-two size classes. Sockets borrow a buffer only for the duration of
+ * a read and give it back right after, so idle connections hold no read
+ * buffer at all, and the kernel copies straight into native memory.
+ *
+ * Requests larger than the biggest size class get a fresh, unpooled buffer.
+ *
+ * @author Animesh Kumar
+ */
+class ByteBufferPool {
+
+	/**
+	 * Capacity of the smallest size class.
+	 */
+	static final int MIN_CLASS_CAPACITY = 4 * 1024;
+	/**
+	 * Number of size classes; each one doubles the capacity of the previous.
+	 */
+	static final int CLASS_COUNT = 5;
+	/**
+	 * Default number of idle buffers kept per size class.
+	 */
+	static final int DEFAULT_MAX_IDLE_PER_CLASS = 8;
+
+	/**
+	 * Idle buffers, one queue per size class.
+	 */
+	private final Queue<ByteBuffer>[] idle;
+	/**
+	 * Number of idle buffers in each queue.
+	 */
+	private final AtomicInteger[] idleCount;
+	/**
+	 * Maximum number of idle buffers kept per size class.
+	 */
+	private final int maxIdlePerClass;
+
+	ByteBufferPool() {
+		this(DEFAULT_MAX_IDLE_PER_CLASS);
+	}
+
+	ByteBufferPool(int maxIdlePerClass) {
+		this.maxIdlePerClass = maxIdlePerClass;
+		this.idle = newQueues(CLASS_COUNT);
+		this.idleCount = new AtomicInteger[CLASS_COUNT];
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			idle[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			idleCount[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Borrows a cleared buffer of at least <var>minCapacity</var> bytes. It
+	 * must be handed back with {@link #release(ByteBuffer)}.
+	 *
+	 * @param minCapacity
+	 *            required capacity
+	 * @return ByteBuffer
+	 */
+	ByteBuffer acquire(int minCapacity) {
+		int sizeClass = sizeClassOf(minCapacity);
+		if (sizeClass < 0) {
+			return ByteBuffer.allocateDirect(minCapacity);
+		}
+		ByteBuffer buffer = idle[sizeClass].poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(MIN_CLASS_CAPACITY << sizeClass);
+		}
+		idleCount[sizeClass].decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer obtained from {@link #acquire(int)} back to the pool. The
+	 * caller must not touch it afterwards.
+	 *
+	 * @param buffer
+	 *            buffer to release, may be null
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		int sizeClass = sizeClassOf(buffer.capacity());
+		if (sizeClass < 0 || (MIN_CLASS_CAPACITY << sizeClass) != buffer.capacity()) {
+			return;
+		}
+		if (idleCount[sizeClass].incrementAndGet() > maxIdlePerClass) {
+			idleCount[sizeClass].decrementAndGet();
+			return;
+		}
+		idle[sizeClass].offer(buffer);
+	}
+
+	// arrays of a generic type can only be made through a cast
+	@SuppressWarnings("unchecked")
+	private static Queue<ByteBuffer>[] newQueues(int count) {
+		return (Queue<ByteBuffer>[]) new Queue<?>[count];
+	}
+
+	// index of the smallest size class holding capacity bytes, or -1 if none
+	private static int sizeClassOf(int capacity) {
+		int classCapacity = MIN_CLASS_CAPACITY;
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			if (capacity <= classCapacity) {
+				return i;
+			}
+			classCapacity <<= 1;
+		}
+		return -1;
+	}
+}
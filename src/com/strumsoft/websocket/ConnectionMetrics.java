@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of a {@link WebSocketConnection}. Each connection
+ * has its own, and adds everything it records to those of its
+ * {@link WebSocketEventLoop} too, which thereby holds the totals of all of
+ * its connections.
+ * <p>
+ * Recording takes no locks. What sending threads update, messages out and
+ * reconnects, goes into {@link StripedCounter}s, striped in the totals,
+ * which all threads share, and a single cell in a connection. The send
+ * queue depth is one atomic, because its high-water mark needs the current
+ * value. Everything else has a single writer, the event loop thread, so
+ * striping would buy nothing and it is kept in plain volatile fields.
+ * <p>
+ * Read-to-dispatch is timed for one message in
+ * {@link #DISPATCH_SAMPLE_EVERY}, since a timestamp per message would cost
+ * more than the rest of the receive path. Both the totals and each
+ * connection keep a histogram of it, the connection a coarse one. The
+ * handshake histogram is in the totals only; a connection keeps count, mean
+ * and maximum of its handshake.
+ *
+ * @author Animesh Kumar
+ */
+public final class ConnectionMetrics {
+
+	/**
+	 * One message in this many is timed from its read to its dispatch.
+	 */
+	public static final int DISPATCH_SAMPLE_EVERY = 16;
+
+	/**
+	 * The totals this adds to, or null.
+	 */
+	private final ConnectionMetrics parent;
+
+	// written by the event loop thread only
+	private volatile long bytesIn;
+	private volatile long bytesOut;
+	private volatile long messagesIn;
+	private volatile long handshakes;
+	private volatile long handshakeNanos;
+	private volatile long handshakeMaxNanos;
+
+	// written by any thread
+	private final StripedCounter messagesOut;
+	private final StripedCounter reconnects;
+	private final AtomicLong queueDepth = new AtomicLong();
+	private final AtomicLong queueHighWaterMark = new AtomicLong();
+
+	/**
+	 * Handshake times; null in the metrics of a connection.
+	 */
+	private final LatencyHistogram handshake;
+	/**
+	 * Sampled read-to-dispatch times; coarse in the metrics of a connection.
+	 */
+	private final LatencyHistogram readToDispatch;
+
+	/**
+	 * Creates metrics that add to <var>parent</var> too. Metrics without a
+	 * parent, the totals, are striped and keep precise histograms.
+	 *
+	 * @param parent
+	 *            the totals, or null
+	 */
+	ConnectionMetrics(ConnectionMetrics parent) {
+		this.parent = parent;
+		int stripes = parent == null ? StripedCounter.SHARED : 1;
+		this.messagesOut = new StripedCounter(stripes);
+		this.reconnects = new StripedCounter(stripes);
+		this.handshake = parent == null ? new LatencyHistogram() : null;
+		this.readToDispatch = new LatencyHistogram(parent != null);
+	}
+
+	// //////////////////////////////////////////////////////////////////////////////////////
+	// /////////////////////////// Recording, called by the connection
+	// //////////////////////////////////////////////////////////////////////////////////////
+
+	void recordBytesIn(int bytes) {
+		bytesIn += bytes;
+		if (parent != null) {
+			parent.recordBytesIn(bytes);
+		}
+	}
+
+	void recordBytesOut(long bytes) {
+		bytesOut += bytes;
+		if (parent != null) {
+			parent.recordBytesOut(bytes);
+		}
+	}
+
+	/**
+	 * Counts the <var>messages</var> received by a read.
+	 */
+	void recordMessagesIn(int messages) {
+		messagesIn += messages;
+		if (parent != null) {
+			parent.recordMessagesIn(messages);
+		}
+	}
+
+	/**
+	 * Records that a sampled message reached the listener <var>nanos</var>
+	 * after the read that completed it.
+	 */
+	void recordReadToDispatch(long nanos) {
+		readToDispatch.record(nanos);
+		if (parent != null) {
+			parent.recordReadToDispatch(nanos);
+		}
+	}
+
+	void recordMessageOut() {
+		messagesOut.increment();
+		if (parent != null) {
+			parent.recordMessageOut();
+		}
+	}
+
+	/**
+	 * Counts a buffer added to the send queue.
+	 */
+	void recordQueued() {
+		long depth = queueDepth.incrementAndGet();
+		long mark = queueHighWaterMark.get();
+		while (depth > mark && !queueHighWaterMark.compareAndSet(mark, depth)) {
+			mark = queueHighWaterMark.get();
+		}
+		if (parent != null) {
+			parent.recordQueued();
+		}
+	}
+
+	/**
+	 * Counts a buffer written and taken off the send queue.
+	 */
+	void recordDequeued() {
+		queueDepth.decrementAndGet();
+		if (parent != null) {
+			parent.recordDequeued();
+		}
+	}
+
+	/**
+	 * Counts <var>buffers</var> dropped from the send queue on close.
+	 */
+	void recordDiscarded(int buffers) {
+		queueDepth.addAndGet(-buffers);
+		if (parent != null) {
+			parent.recordDiscarded(buffers);
+		}
+	}
+
+	void recordHandshake(long nanos) {
+		handshakes++;
+		handshakeNanos += nanos;
+		if (nanos > handshakeMaxNanos) {
+			handshakeMaxNanos = nanos;
+		}
+		if (handshake != null) {
+			handshake.record(nanos);
+		}
+		if (parent != null) {
+			parent.recordHandshake(nanos);
+		}
+	}
+
+	void recordReconnect() {
+		reconnects.increment();
+		if (parent != null) {
+			parent.recordReconnect();
+		}
+	}
+
+	// //////////////////////////////////////////////////////////////////////////////////////
+	// /////////////////////////// Reading
+	// //////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @return bytes read from the socket, after TLS
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * @return bytes written to the socket, before TLS
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * @return messages handed to the listener
+	 */
+	public long getMessagesIn() {
+		return messagesIn;
+	}
+
+	/**
+	 * @return messages sent
+	 */
+	public long getMessagesOut() {
+		return messagesOut.sum();
+	}
+
+	/**
+	 * @return buffers waiting in the send queue
+	 */
+	public long getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * @return the most buffers that waited in the send queue at once
+	 */
+	public long getQueueHighWaterMark() {
+		return queueHighWaterMark.get();
+	}
+
+	/**
+	 * @return connections opened to an endpoint that was connected to
+	 *         before on the same event loop
+	 */
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+
+	/**
+	 * @return time from connect() until the handshake completed, or null in
+	 *         the metrics of a connection
+	 */
+	public LatencyHistogram getHandshake() {
+		return handshake;
+	}
+
+	/**
+	 * @return time from a read until a message it completed was handed to
+	 *         the listener, for one message in {@link #DISPATCH_SAMPLE_EVERY}
+	 */
+	public LatencyHistogram getReadToDispatch() {
+		return readToDispatch;
+	}
+
+	/**
+	 * @return all metrics as a JSON object
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder(512);
+		appendJson(json);
+		return json.toString();
+	}
+
+	/**
+	 * Appends all metrics as a JSON object to <var>out</var>. The handshake
+	 * of a connection has count, mean and maximum only.
+	 */
+	public void appendJson(StringBuilder out) {
+		out.append("{\"bytesIn\":").append(getBytesIn());
+		out.append(",\"bytesOut\":").append(getBytesOut());
+		out.append(",\"messagesIn\":").append(getMessagesIn());
+		out.append(",\"messagesOut\":").append(getMessagesOut());
+		out.append(",\"queueDepth\":").append(getQueueDepth());
+		out.append(",\"queueHighWaterMark\":").append(getQueueHighWaterMark());
+		out.append(",\"reconnects\":").append(getReconnects());
+		out.append(",\"handshake\":");
+		if (handshake != null) {
+			handshake.appendJson(out);
+		} else {
+			appendSummary(out, handshakes, handshakeNanos, handshakeMaxNanos);
+		}
+		out.append(",\"readToDispatch\":");
+		readToDispatch.appendJson(out);
+		out.append('}');
+	}
+
+	private static void appendSummary(StringBuilder out, long count, long total, long max) {
+		out.append("{\"count\":").append(count);
+		out.append(",\"meanMicros\":").append(LatencyHistogram.micros(count == 0 ? 0 : total / count));
+		out.append(",\"maxMicros\":").append(LatencyHistogram.micros(max)).append('}');
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The <tt>FrameParser</tt> turns the bytes a {@link WebSocketConnection} reads after
+ * the handshake into messages. Parsers are resumable: they keep their state
+ * between reads and consume whatever part of a frame each read brings.
+ *
+ * @author Animesh Kumar
+ */
+abstract class FrameParser {
+
+	/**
+	 * Buffers grown beyond this are dropped after the message they held.
+	 */
+	static final int MAX_RETAINED_SIZE = WebSocketConnection.READ_BUFFER_SIZE;
+	/**
+	 * The initial size of the buffers messages are accumulated in.
+	 */
+	static final int INITIAL_BUFFER_SIZE = 256;
+
+	/**
+	 * The socket that receives the parsed messages.
+	 */
+	protected final WebSocketConnection socket;
+	/**
+	 * Decoder reused for every text message.
+	 */
+	private final CharsetDecoder decoder;
+	/**
+	 * Decoded text of the current message, reused across messages.
+	 */
+	private CharBuffer text = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	FrameParser(WebSocketConnection socket) {
+		this.socket = socket;
+		this.decoder = Charset.forName(WebSocketConnection.UTF8_CHARSET).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Consumes all remaining bytes of <var>data</var>, delivering every
+	 * message that completes.
+	 *
+	 * @param data
+	 *            bytes read from the socket
+	 * @throws IOException
+	 *             if the data violates the framing
+	 */
+	abstract void parse(ByteBuffer data) throws IOException;
+
+	/**
+	 * Decodes the remaining bytes of <var>message</var> as UTF-8 and hands the
+	 * text to the socket.
+	 *
+	 * @param message
+	 *            the bytes of a complete text message
+	 */
+	protected void deliverText(ByteBuffer message) {
+		// UTF-8 never yields more chars than bytes
+		if (text.capacity() < message.remaining()) {
+			text = CharBuffer.allocate(message.remaining());
+		}
+		text.clear();
+		decoder.reset();
+		decoder.decode(message, text, true);
+		decoder.flush(text);
+		text.flip();
+		socket._onTextFrame(text);
+		if (text.capacity() > MAX_RETAINED_SIZE) {
+			text = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Returns <var>buffer</var> if it can take <var>extra</var> more bytes
+	 * after the first <var>length</var>, or a bigger copy of it otherwise.
+	 *
+	 * @param buffer
+	 *            the current buffer, may be null
+	 * @param length
+	 *            number of bytes in use
+	 * @param extra
+	 *            number of bytes to be appended
+	 * @return byte[]
+	 */
+	static byte[] ensureCapacity(byte[] buffer, int length, int extra) {
+		if (buffer == null) {
+			return new byte[Math.max(INITIAL_BUFFER_SIZE, extra)];
+		}
+		if (length + extra <= buffer.length) {
+			return buffer;
+		}
+		byte[] grown = new byte[Math.max(length + extra, buffer.length * 2)];
+		System.arraycopy(buffer, 0, grown, 0, length);
+		return grown;
+	}
+}
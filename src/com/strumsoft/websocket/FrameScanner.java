@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The <tt>FrameScanner</tt> finds frame delimiters in a {@link ByteBuffer}
+ * eight bytes at a time. Each long read from the buffer is XOR-ed with the
+ * delimiter repeated in every byte, which turns matching bytes into zero
+ * bytes, and an exact zero-byte test then locates the first match without
+ * branching per byte. The tails that don't fill a long are scanned byte by
+ * byte.
+ *
+ * @author Animesh Kumar
+ */
+final class FrameScanner {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private FrameScanner() {
+	}
+
+	/**
+	 * Returns the absolute index of the first <var>value</var> byte in
+	 * <var>data</var> between <var>from</var> (inclusive) and <var>to</var>
+	 * (exclusive), or -1 if there is none. The position and limit of
+	 * <var>data</var> are not changed.
+	 *
+	 * @param data
+	 *            buffer to scan
+	 * @param from
+	 *            first index to look at
+	 * @param to
+	 *            index to stop at
+	 * @param value
+	 *            the delimiter to look for, e.g.
+	 *            {@link WebSocketConnection#DATA_END_OF_FRAME}
+	 * @return index of the delimiter, or -1
+	 */
+	static int indexOf(ByteBuffer data, int from, int to, byte value) {
+		int i = from;
+		if (to - from >= 8) {
+			long pattern = ONES * (value & 0xFF);
+			boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+			for (int last = to - 8; i <= last; i += 8) {
+				long word = data.getLong(i) ^ pattern;
+				// high bit set in exactly the bytes of word that are zero
+				long zeros = ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+				if (zeros != 0) {
+					int bit = bigEndian ? Long.numberOfLeadingZeros(zeros) : Long.numberOfTrailingZeros(zeros);
+					return i + (bit >>> 3);
+				}
+			}
+		}
+		for (; i < to; i++) {
+			if (data.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
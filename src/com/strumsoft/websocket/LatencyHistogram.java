@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, laid out like an HdrHistogram:
+ * values below 64 have a bucket each, and every power of two above that is
+ * split into 32 buckets, so any value is off by at most 1/32 (about 3%) of
+ * itself. That takes 1024 buckets up to a minute, and recording is a single
+ * atomic increment with no locks and no allocation.
+ *
+ * A coarse histogram has a bucket for each value below 16 and splits every
+ * power of two above into 8: about 12% precision in 272 buckets, small
+ * enough for every connection to have one.
+ *
+ * @author Animesh Kumar
+ */
+public final class LatencyHistogram {
+
+	private static final int PRECISE_SUB_BUCKET_BITS = 5;
+	private static final int COARSE_SUB_BUCKET_BITS = 3;
+
+	/**
+	 * Largest value told apart; larger ones are counted as this, about 68
+	 * seconds.
+	 */
+	public static final long MAX_VALUE = (1L << 36) - 1;
+
+	private final int subBucketBits;
+	private final int subBuckets;
+	private final int buckets;
+	private final AtomicLongArray counts;
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 * Creates a histogram with about 3% precision.
+	 */
+	public LatencyHistogram() {
+		this(false);
+	}
+
+	/**
+	 * @param coarse
+	 *            true for about 12% precision in a quarter of the memory
+	 */
+	public LatencyHistogram(boolean coarse) {
+		this.subBucketBits = coarse ? COARSE_SUB_BUCKET_BITS : PRECISE_SUB_BUCKET_BITS;
+		this.subBuckets = 1 << subBucketBits;
+		// as many as it takes for MAX_VALUE
+		this.buckets = (37 - subBucketBits) * subBuckets;
+		this.counts = new AtomicLongArray(buckets);
+	}
+
+	/**
+	 * Counts one duration. Negative durations count as 0.
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+		counts.incrementAndGet(index(value));
+		total.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of durations recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < buckets; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the largest duration recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the durations recorded, in nanoseconds
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) total.get() / count;
+	}
+
+	/**
+	 * Returns the duration that <var>percentile</var> percent of the recorded
+	 * ones don't exceed, rounded up to the end of its bucket but no further
+	 * than the largest one.
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the duration in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[buckets];
+		long count = 0;
+		for (int i = 0; i < buckets; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		return Math.min(valueAt(snapshot, count, percentile), max.get());
+	}
+
+	/**
+	 * Appends count, mean, p50, p90, p99, p99.9 and max in microseconds as a
+	 * JSON object.
+	 */
+	public void appendJson(StringBuilder out) {
+		long[] snapshot = new long[buckets];
+		long count = 0;
+		for (int i = 0; i < buckets; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		long max = this.max.get();
+		out.append("{\"count\":").append(count);
+		out.append(",\"meanMicros\":").append(micros(count == 0 ? 0 : total.get() / count));
+		out.append(",\"p50Micros\":").append(micros(Math.min(valueAt(snapshot, count, 50), max)));
+		out.append(",\"p90Micros\":").append(micros(Math.min(valueAt(snapshot, count, 90), max)));
+		out.append(",\"p99Micros\":").append(micros(Math.min(valueAt(snapshot, count, 99), max)));
+		out.append(",\"p999Micros\":").append(micros(Math.min(valueAt(snapshot, count, 99.9), max)));
+		out.append(",\"maxMicros\":").append(micros(max)).append('}');
+	}
+
+	private long valueAt(long[] snapshot, long count, double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for (int i = 0; i < buckets; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return highestValueIn(i);
+			}
+		}
+		return MAX_VALUE;
+	}
+
+	// microseconds with one decimal, as text
+	static String micros(long nanos) {
+		return (nanos / 1000) + "." + (nanos % 1000 / 100);
+	}
+
+	int index(long value) {
+		if (value < 2 * subBuckets) {
+			return (int) value;
+		}
+		// keep the top subBucketBits + 1 bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+		return (shift + 1) * subBuckets + (int) (value >>> shift) - subBuckets;
+	}
+
+	long highestValueIn(int index) {
+		if (index < 2 * subBuckets) {
+			return index;
+		}
+		int shift = index / subBuckets - 1;
+		long subBucket = index % subBuckets + subBuckets;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The <tt>PerMessageDeflate</tt> implements the permessage-deflate extension
+ * (RFC 7692) for {@link WebSocketConnection.Draft#RFC6455} connections.
+ *
+ * An instance given to {@link WebSocketConnection#setPerMessageDeflate} is
+ * only a template; every socket works on its own copy, which keeps one
+ * {@link Inflater} and one {@link Deflater} (and their output buffers) for
+ * the lifetime of the connection.
+ *
+ * {@link Deflater} can't be limited to a smaller window, so the client always
+ * compresses with 15 window bits and never offers client_max_window_bits.
+ * {@link Inflater} copes with any window the server uses.
+ *
+ * @author Animesh Kumar
+ */
+public class PerMessageDeflate {
+
+	/**
+	 * The extension token in Sec-WebSocket-Extensions.
+	 */
+	static final String EXTENSION_NAME = "permessage-deflate";
+	/**
+	 * Messages shorter than this are sent uncompressed by default.
+	 */
+	public static final int DEFAULT_MIN_COMPRESS_SIZE = 64;
+	/**
+	 * The largest (and default) LZ77 window.
+	 */
+	public static final int MAX_WINDOW_BITS = 15;
+
+	/**
+	 * The trailer of a sync flush, stripped from every compressed message.
+	 */
+	private static final byte[] TAIL = new byte[] { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+	private boolean clientNoContextTakeover;
+	private boolean serverNoContextTakeover;
+	private final int serverMaxWindowBits;
+	private final int minCompressSize;
+	private final int compressionLevel;
+
+	private Inflater inflater;
+	private Deflater deflater;
+	private byte[] inflateInput;
+	private byte[] inflateOutput;
+	private byte[] deflateOutput;
+
+	/**
+	 * A permessage-deflate configuration with context takeover in both
+	 * directions, the default window and the default compression level.
+	 */
+	public PerMessageDeflate() {
+		this(false, false, MAX_WINDOW_BITS, DEFAULT_MIN_COMPRESS_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param clientNoContextTakeover
+	 *            reset the compressor after every message sent; saves memory
+	 *            at the cost of ratio
+	 * @param serverNoContextTakeover
+	 *            ask the server to reset its compressor after every message
+	 * @param serverMaxWindowBits
+	 *            window the server may compress with, 8 to 15
+	 * @param minCompressSize
+	 *            messages shorter than this are sent uncompressed
+	 * @param compressionLevel
+	 *            {@link Deflater} compression level
+	 */
+	public PerMessageDeflate(boolean clientNoContextTakeover, boolean serverNoContextTakeover,
+			int serverMaxWindowBits, int minCompressSize, int compressionLevel) {
+		if (serverMaxWindowBits < 8 || serverMaxWindowBits > MAX_WINDOW_BITS) {
+			throw new IllegalArgumentException("serverMaxWindowBits must be between 8 and 15");
+		}
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.serverMaxWindowBits = serverMaxWindowBits;
+		this.minCompressSize = minCompressSize;
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Copies the configuration of <var>template</var> for a new connection.
+	 */
+	PerMessageDeflate(PerMessageDeflate template) {
+		this(template.clientNoContextTakeover, template.serverNoContextTakeover, template.serverMaxWindowBits,
+				template.minCompressSize, template.compressionLevel);
+	}
+
+	/**
+	 * @return the value of the Sec-WebSocket-Extensions request header
+	 */
+	String offer() {
+		StringBuilder offer = new StringBuilder(EXTENSION_NAME);
+		if (clientNoContextTakeover) {
+			offer.append("; client_no_context_takeover");
+		}
+		if (serverNoContextTakeover) {
+			offer.append("; server_no_context_takeover");
+		}
+		if (serverMaxWindowBits < MAX_WINDOW_BITS) {
+			offer.append("; server_max_window_bits=").append(serverMaxWindowBits);
+		}
+		return offer.toString();
+	}
+
+	/**
+	 * Applies the parameters the server answered with.
+	 *
+	 * @param response
+	 *            the Sec-WebSocket-Extensions response header, may be null
+	 * @return true if the server accepted the extension with parameters we
+	 *         can honour, false if it declined
+	 * @throws ProtocolException
+	 *             if the server asked for something we can't do
+	 */
+	boolean accept(String response) throws ProtocolException {
+		if (response == null) {
+			return false;
+		}
+		for (String extension : response.split(",")) {
+			String[] params = extension.split(";");
+			if (!EXTENSION_NAME.equalsIgnoreCase(params[0].trim())) {
+				continue;
+			}
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				int eq = param.indexOf('=');
+				String name = (eq < 0 ? param : param.substring(0, eq)).trim();
+				String value = eq < 0 ? null : param.substring(eq + 1).trim().replace("\"", "");
+				if ("client_no_context_takeover".equals(name)) {
+					clientNoContextTakeover = true;
+				} else if ("server_no_context_takeover".equals(name)) {
+					serverNoContextTakeover = true;
+				} else if ("client_max_window_bits".equals(name)) {
+					if (value != null && Integer.parseInt(value) < MAX_WINDOW_BITS) {
+						throw new ProtocolException("Unsupported client_max_window_bits=" + value);
+					}
+				} else if (!"server_max_window_bits".equals(name)) {
+					throw new ProtocolException("Unknown permessage-deflate parameter: " + name);
+				}
+			}
+			inflater = new Inflater(true);
+			deflater = new Deflater(compressionLevel, true);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Decompresses a complete message.
+	 *
+	 * @param payload
+	 *            the compressed payload
+	 * @param maxMessageSize
+	 *            largest message accepted, in bytes
+	 * @return a view of the decompressed bytes, valid until the next call
+	 * @throws MessageTooBigException
+	 *             if the message inflates to more than
+	 *             <var>maxMessageSize</var>
+	 * @throws ProtocolException
+	 *             if the payload is not valid deflate data
+	 */
+	synchronized ByteBuffer inflate(ByteBuffer payload, int maxMessageSize) throws ProtocolException {
+		int length = payload.remaining();
+		inflateInput = FrameParser.ensureCapacity(inflateInput, 0, length + TAIL.length);
+		payload.get(inflateInput, 0, length);
+		System.arraycopy(TAIL, 0, inflateInput, length, TAIL.length);
+		inflater.setInput(inflateInput, 0, length + TAIL.length);
+
+		if (inflateOutput == null) {
+			inflateOutput = new byte[(int) Math.min(Math.max(FrameParser.INITIAL_BUFFER_SIZE, length * 4L),
+					maxMessageSize + 1L)];
+		}
+		int produced = 0;
+		try {
+			while (true) {
+				if (produced > maxMessageSize) {
+					// the inflater is left mid-message; the connection is
+					// failed, so it is never used again
+					throw new MessageTooBigException("Message inflates to more than " + maxMessageSize
+							+ " bytes");
+				}
+				if (produced == inflateOutput.length) {
+					// one byte past the limit is enough to tell it was exceeded
+					int capacity = (int) Math.min(2L * produced, maxMessageSize + 1L);
+					inflateOutput = Arrays.copyOf(inflateOutput, capacity);
+				}
+				int room = (int) Math.min(inflateOutput.length, maxMessageSize + 1L) - produced;
+				int n = inflater.inflate(inflateOutput, produced, room);
+				produced += n;
+				if (n == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+					break;
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ProtocolException("Invalid compressed message: " + e.getMessage());
+		}
+		if (serverNoContextTakeover) {
+			inflater.reset();
+		}
+		ByteBuffer inflated = ByteBuffer.wrap(inflateOutput, 0, produced);
+		if (inflateInput.length > FrameParser.MAX_RETAINED_SIZE) {
+			inflateInput = null;
+		}
+		if (inflateOutput.length > FrameParser.MAX_RETAINED_SIZE) {
+			inflateOutput = null;
+		}
+		return inflated;
+	}
+
+	/**
+	 * Builds a masked frame for <var>payload</var>, compressed unless it is
+	 * too short to be worth it. Safe to call from any thread.
+	 *
+	 * @param opcode
+	 *            {@link Rfc6455Frames#OPCODE_TEXT} or
+	 *            {@link Rfc6455Frames#OPCODE_BINARY}
+	 * @param payload
+	 *            the message
+	 * @param maskKey
+	 *            the masking key
+	 * @return a buffer ready to be written
+	 */
+	synchronized ByteBuffer encode(int opcode, byte[] payload, int maskKey) {
+		if (payload.length < minCompressSize) {
+			return Rfc6455Frames.encode(opcode, false, payload, 0, payload.length, maskKey);
+		}
+		deflater.setInput(payload);
+		deflateOutput = FrameParser.ensureCapacity(deflateOutput, 0, payload.length / 2 + 64);
+		int produced = 0;
+		while (true) {
+			int n = deflater.deflate(deflateOutput, produced, deflateOutput.length - produced, Deflater.SYNC_FLUSH);
+			produced += n;
+			if (produced < deflateOutput.length) {
+				break;
+			}
+			deflateOutput = FrameParser.ensureCapacity(deflateOutput, produced, produced);
+		}
+		if (clientNoContextTakeover) {
+			deflater.reset();
+		}
+		// drop the 00 00 FF FF trailer of the sync flush
+		ByteBuffer frame = Rfc6455Frames.encode(opcode, true, deflateOutput, 0, produced - TAIL.length, maskKey);
+		if (deflateOutput.length > FrameParser.MAX_RETAINED_SIZE) {
+			deflateOutput = null;
+		}
+		return frame;
+	}
+
+	/**
+	 * Releases the native zlib state.
+	 */
+	synchronized void end() {
+		if (inflater != null) {
+			inflater.end();
+		}
+		if (deflater != null) {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * The <tt>Rfc6455FrameParser</tt> parses the length-prefixed frames of RFC
+ * 6455: text, binary and continuation frames as well as the close, ping and
+ * pong control frames.
+ *
+ * An unfragmented data frame that lies entirely within one read buffer is
+ * delivered straight from that buffer. Everything else is accumulated in
+ * buffers that are reused from frame to frame, so steady-state parsing
+ * allocates nothing. A message is refused before it is buffered if its
+ * frames announce more than the maximum message size.
+ *
+ * Servers must not mask their frames; a masked one, like any other violation
+ * of the protocol, is refused with a {@link ProtocolException}.
+ *
+ * @author Animesh Kumar
+ */
+class Rfc6455FrameParser extends FrameParser {
+
+	/**
+	 * Largest possible frame header: 2 bytes, 8 bytes of extended length and a
+	 * 4 byte masking key.
+	 */
+	private static final int MAX_HEADER_LENGTH = 14;
+
+	/**
+	 * The header of the current frame.
+	 */
+	private final byte[] header = new byte[MAX_HEADER_LENGTH];
+	/**
+	 * Number of header bytes read so far.
+	 */
+	private int headerLength;
+	/**
+	 * Whether the header of the current frame is complete and its payload is
+	 * being read.
+	 */
+	private boolean inPayload;
+
+	// fields of the current frame header
+	private boolean fin;
+	private boolean rsv1;
+	private int opcode;
+	private boolean masked;
+	private long payloadLength;
+	private long payloadRemaining;
+
+	/**
+	 * Opcode of the data message being assembled, or -1 if none.
+	 */
+	private int messageOpcode = -1;
+	/**
+	 * Whether the message being assembled had RSV1 set on its first frame.
+	 */
+	private boolean messageRsv1;
+	/**
+	 * The payload of the data message being assembled.
+	 */
+	private byte[] message;
+	private ByteBuffer messageView;
+	private int messageLength;
+
+	/**
+	 * The payload of the current control frame.
+	 */
+	private final byte[] control = new byte[Rfc6455Frames.MAX_CONTROL_PAYLOAD];
+	private final ByteBuffer controlView = ByteBuffer.wrap(control);
+	private int controlLength;
+
+	/**
+	 * The negotiated permessage-deflate extension, or null.
+	 */
+	private PerMessageDeflate deflate;
+	/**
+	 * Largest message accepted, compressed or inflated.
+	 */
+	private int maxMessageSize = WebSocketConnection.DEFAULT_MAX_MESSAGE_SIZE;
+
+	Rfc6455FrameParser(WebSocketConnection socket) {
+		super(socket);
+	}
+
+	/**
+	 * Enables decompression of messages flagged with RSV1.
+	 *
+	 * @param deflate
+	 *            the negotiated extension
+	 */
+	void setPerMessageDeflate(PerMessageDeflate deflate) {
+		this.deflate = deflate;
+	}
+
+	/**
+	 * @param maxMessageSize
+	 *            largest message accepted, in bytes
+	 */
+	void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	@Override
+	void parse(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			if (!inPayload) {
+				if (!readHeader(data)) {
+					return;
+				}
+				if (payloadRemaining == 0) {
+					frameComplete();
+					continue;
+				}
+			}
+
+			int position = data.position();
+			int available = (int) Math.min(data.remaining(), payloadRemaining);
+
+			if (Rfc6455Frames.isControl(opcode)) {
+				data.get(control, controlLength, available);
+				controlLength += available;
+			} else if (fin && messageOpcode < 0 && available == payloadLength) {
+				// the whole message is in this buffer; deliver it in place
+				int limit = data.limit();
+				data.limit(position + available);
+				deliver(opcode, rsv1, data);
+				data.limit(limit);
+				data.position(position + available);
+				payloadRemaining = 0;
+				inPayload = false;
+				continue;
+			} else {
+				if (messageOpcode < 0) {
+					messageOpcode = opcode;
+					messageRsv1 = rsv1;
+				}
+				byte[] grown = ensureCapacity(message, messageLength, available);
+				if (grown != message) {
+					message = grown;
+					messageView = ByteBuffer.wrap(message);
+				}
+				data.get(message, messageLength, available);
+				messageLength += available;
+			}
+
+			payloadRemaining -= available;
+			if (payloadRemaining == 0) {
+				frameComplete();
+			}
+		}
+	}
+
+	// reads header bytes until the header is complete; false if data ran out
+	private boolean readHeader(ByteBuffer data) throws IOException {
+		while (headerLength < headerLengthNeeded()) {
+			if (!data.hasRemaining()) {
+				return false;
+			}
+			header[headerLength++] = data.get();
+		}
+
+		int b0 = header[0] & 0xFF;
+		int b1 = header[1] & 0xFF;
+		fin = (b0 & Rfc6455Frames.FLAG_FIN) != 0;
+		rsv1 = (b0 & Rfc6455Frames.FLAG_RSV1) != 0;
+		opcode = b0 & 0x0F;
+		masked = (b1 & Rfc6455Frames.FLAG_MASK) != 0;
+
+		int length = b1 & 0x7F;
+		if (length == 126) {
+			payloadLength = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+		} else if (length == 127) {
+			payloadLength = 0;
+			for (int i = 2; i < 10; i++) {
+				payloadLength = (payloadLength << 8) | (header[i] & 0xFF);
+			}
+		} else {
+			payloadLength = length;
+		}
+		headerLength = 0;
+
+		validateHeader(b0);
+		payloadRemaining = payloadLength;
+		controlLength = 0;
+		inPayload = true;
+		return true;
+	}
+
+	private int headerLengthNeeded() {
+		if (headerLength < 2) {
+			return 2;
+		}
+		int length = header[1] & 0x7F;
+		int needed = length == 126 ? 4 : length == 127 ? 10 : 2;
+		return (header[1] & Rfc6455Frames.FLAG_MASK) != 0 ? needed + 4 : needed;
+	}
+
+	private void validateHeader(int b0) throws ProtocolException {
+		if ((b0 & Rfc6455Frames.FLAG_RSV2_RSV3) != 0 || (rsv1 && deflate == null)) {
+			throw new ProtocolException("Reserved bits set without a negotiated extension");
+		}
+		if (masked) {
+			throw new ProtocolException("Masked frame from the server");
+		}
+		if (payloadLength < 0) {
+			throw new ProtocolException("Invalid frame length: " + payloadLength);
+		}
+		switch (opcode) {
+		case Rfc6455Frames.OPCODE_CLOSE:
+			if (payloadLength == 1) {
+				throw new ProtocolException("Close frame with a 1 byte payload");
+			}
+			// fall through
+		case Rfc6455Frames.OPCODE_PING:
+		case Rfc6455Frames.OPCODE_PONG:
+			if (!fin || payloadLength > Rfc6455Frames.MAX_CONTROL_PAYLOAD) {
+				throw new ProtocolException("Invalid control frame");
+			}
+			return;
+		case Rfc6455Frames.OPCODE_CONTINUATION:
+			if (rsv1) {
+				throw new ProtocolException("RSV1 set on a continuation frame");
+			}
+			if (messageOpcode < 0) {
+				throw new ProtocolException("Continuation frame without a message");
+			}
+			break;
+		case Rfc6455Frames.OPCODE_TEXT:
+		case Rfc6455Frames.OPCODE_BINARY:
+			if (messageOpcode >= 0) {
+				throw new ProtocolException("New message before the previous one finished");
+			}
+			break;
+		default:
+			throw new ProtocolException("Unknown opcode: " + opcode);
+		}
+		// refused before any of it is buffered; messageLength is 0 for the
+		// first frame of a message
+		if (messageLength + payloadLength > maxMessageSize) {
+			throw new MessageTooBigException("Message larger than " + maxMessageSize + " bytes");
+		}
+	}
+
+	// called once the whole payload of the current frame has been read
+	private void frameComplete() throws IOException {
+		inPayload = false;
+		if (Rfc6455Frames.isControl(opcode)) {
+			controlView.limit(controlLength).position(0);
+			switch (opcode) {
+			case Rfc6455Frames.OPCODE_CLOSE:
+				int code = Rfc6455Frames.CLOSE_NO_STATUS;
+				String reason = "";
+				if (controlLength >= 2) {
+					code = ((control[0] & 0xFF) << 8) | (control[1] & 0xFF);
+					reason = new String(control, 2, controlLength - 2, WebSocketConnection.UTF8_CHARSET);
+				}
+				socket._onCloseFrame(code, reason);
+				break;
+			case Rfc6455Frames.OPCODE_PING:
+				socket._onPing(controlView);
+				break;
+			default:
+				// unsolicited pongs are ignored
+				break;
+			}
+			controlView.clear();
+			return;
+		}
+
+		if (messageOpcode < 0) {
+			// an empty first frame
+			messageOpcode = opcode;
+			messageRsv1 = rsv1;
+		}
+		if (!fin) {
+			return;
+		}
+		ByteBuffer payload = messageView != null ? messageView : ByteBuffer.wrap(control, 0, 0);
+		payload.limit(messageLength).position(0);
+		deliver(messageOpcode, messageRsv1, payload);
+		payload.clear();
+		messageOpcode = -1;
+		messageLength = 0;
+		if (message != null && message.length > MAX_RETAINED_SIZE) {
+			message = null;
+			messageView = null;
+		}
+	}
+
+	/**
+	 * Hands a complete message to the socket.
+	 *
+	 * @param opcode
+	 *            {@link Rfc6455Frames#OPCODE_TEXT} or
+	 *            {@link Rfc6455Frames#OPCODE_BINARY}
+	 * @param rsv1
+	 *            whether the first frame of the message had RSV1 set
+	 * @param payload
+	 *            the message payload
+	 * @throws IOException
+	 */
+	private void deliver(int opcode, boolean rsv1, ByteBuffer payload) throws IOException {
+		if (rsv1) {
+			payload = deflate.inflate(payload, maxMessageSize);
+		}
+		if (opcode == Rfc6455Frames.OPCODE_TEXT) {
+			deliverText(payload);
+		} else {
+			socket._onBinaryFrame(payload);
+		}
+	}
+}
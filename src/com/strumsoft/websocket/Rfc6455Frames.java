@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Constants and helpers for the RFC 6455 framing: building masked client
+ * frames and (un)masking payloads.
+ *
+ * Masking XORs eight payload bytes at a time with the 4 byte masking key
+ * repeated twice, and only the last few bytes are masked one by one.
+ *
+ * @author Animesh Kumar
+ */
+final class Rfc6455Frames {
+
+	static final int OPCODE_CONTINUATION = 0x0;
+	static final int OPCODE_TEXT = 0x1;
+	static final int OPCODE_BINARY = 0x2;
+	static final int OPCODE_CLOSE = 0x8;
+	static final int OPCODE_PING = 0x9;
+	static final int OPCODE_PONG = 0xA;
+
+	/**
+	 * Bit of the first header byte set on the last frame of a message.
+	 */
+	static final int FLAG_FIN = 0x80;
+	/**
+	 * Bit of the first header byte reserved for extensions.
+	 */
+	static final int FLAG_RSV1 = 0x40;
+	/**
+	 * Reserved bits of the first header byte extensions may not use.
+	 */
+	static final int FLAG_RSV2_RSV3 = 0x30;
+	/**
+	 * Bit of the second header byte set when the payload is masked.
+	 */
+	static final int FLAG_MASK = 0x80;
+
+	/**
+	 * Largest payload a control frame may carry.
+	 */
+	static final int MAX_CONTROL_PAYLOAD = 125;
+
+	/**
+	 * Status code of a normal closure.
+	 */
+	static final int CLOSE_NORMAL = 1000;
+	/**
+	 * Status code sent when the peer violated the protocol.
+	 */
+	static final int CLOSE_PROTOCOL_ERROR = 1002;
+	/**
+	 * Status code reported when a close frame carried none.
+	 */
+	static final int CLOSE_NO_STATUS = 1005;
+	/**
+	 * Status code sent when a message is too big to process.
+	 */
+	static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
+	/**
+	 * The GUID the server appends to Sec-WebSocket-Key before hashing it into
+	 * Sec-WebSocket-Accept.
+	 */
+	static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	private Rfc6455Frames() {
+	}
+
+	/**
+	 * @return true if <var>opcode</var> is a control opcode
+	 */
+	static boolean isControl(int opcode) {
+		return (opcode & 0x8) != 0;
+	}
+
+	/**
+	 * Builds a complete, masked client frame with the FIN bit set.
+	 *
+	 * @param opcode
+	 *            the frame opcode
+	 * @param rsv1
+	 *            whether to set the RSV1 bit
+	 * @param payload
+	 *            array holding the payload
+	 * @param offset
+	 *            offset of the payload in <var>payload</var>
+	 * @param length
+	 *            payload length
+	 * @param maskKey
+	 *            the masking key
+	 * @return a buffer ready to be written
+	 */
+	static ByteBuffer encode(int opcode, boolean rsv1, byte[] payload, int offset, int length, int maskKey) {
+		int headerLength = 2 + (length < 126 ? 0 : length <= 0xFFFF ? 2 : 8) + 4;
+		ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+		frame.put((byte) (FLAG_FIN | (rsv1 ? FLAG_RSV1 : 0) | opcode));
+		if (length < 126) {
+			frame.put((byte) (FLAG_MASK | length));
+		} else if (length <= 0xFFFF) {
+			frame.put((byte) (FLAG_MASK | 126));
+			frame.putShort((short) length);
+		} else {
+			frame.put((byte) (FLAG_MASK | 127));
+			frame.putLong(length);
+		}
+		frame.putInt(maskKey);
+		frame.put(payload, offset, length);
+		mask(frame, headerLength, headerLength + length, maskKey, 0);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Masks (or unmasks, which is the same operation) the bytes of
+	 * <var>buffer</var> between <var>from</var> and <var>to</var>.
+	 *
+	 * @param buffer
+	 *            buffer to mask in place
+	 * @param from
+	 *            absolute index of the first byte to mask
+	 * @param to
+	 *            absolute index to stop at
+	 * @param maskKey
+	 *            the masking key of the frame
+	 * @param offset
+	 *            offset of <var>from</var> within the frame payload, so a
+	 *            payload can be masked piecewise
+	 */
+	static void mask(ByteBuffer buffer, int from, int to, int maskKey, long offset) {
+		int key = Integer.rotateLeft(maskKey, (int) (offset & 3) * 8);
+		long wideKey = ((long) key << 32) | (key & 0xFFFFFFFFL);
+		if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+			wideKey = Long.reverseBytes(wideKey);
+		}
+		int i = from;
+		for (int last = to - 8; i <= last; i += 8) {
+			buffer.putLong(i, buffer.getLong(i) ^ wideKey);
+		}
+		for (; i < to; i++) {
+			buffer.put(i, (byte) (buffer.get(i) ^ (key >>> (24 - 8 * ((i - from) & 3)))));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The <tt>SentinelFrameParser</tt> splits the byte stream of a Draft 75/76
+ * connection into text frames, each one starting with
+ * {@link WebSocketConnection#DATA_START_OF_FRAME} and ending with
+ * {@link WebSocketConnection#DATA_END_OF_FRAME}.
+ *
+ * A frame that lies entirely within one read buffer is decoded straight from
+ * that buffer; only frames that straddle reads are accumulated.
+ *
+ * @author Animesh Kumar
+ */
+class SentinelFrameParser extends FrameParser {
+
+	/**
+	 * Whether the start byte of a frame has been seen but not its end.
+	 */
+	private boolean inFrame;
+	/**
+	 * The bytes of a frame that started in an earlier read.
+	 */
+	private byte[] partial;
+	/**
+	 * Number of valid bytes in {@link #partial}.
+	 */
+	private int partialLength;
+
+	SentinelFrameParser(WebSocketConnection socket) {
+		super(socket);
+	}
+
+	@Override
+	void parse(ByteBuffer data) {
+		int limit = data.limit();
+		while (data.position() < limit) {
+			int position = data.position();
+			if (!inFrame) {
+				// skip anything up to and including the start byte
+				if (data.get(position) == WebSocketConnection.DATA_START_OF_FRAME) {
+					inFrame = true;
+				}
+				data.position(position + 1);
+				continue;
+			}
+
+			int end = FrameScanner.indexOf(data, position, limit, WebSocketConnection.DATA_END_OF_FRAME);
+			if (end < 0) {
+				// the frame goes on in the next read
+				append(data, position, limit);
+				data.position(limit);
+				return;
+			}
+
+			if (partialLength == 0) {
+				// the whole frame is in this buffer; decode it in place
+				data.limit(end);
+				deliverText(data);
+				data.limit(limit);
+			} else {
+				append(data, position, end);
+				deliverText(ByteBuffer.wrap(partial, 0, partialLength));
+				partialLength = 0;
+				if (partial.length > MAX_RETAINED_SIZE) {
+					partial = null;
+				}
+			}
+			data.position(end + 1);
+			inFrame = false;
+		}
+	}
+
+	// copies data[from, to) to the end of the partial frame
+	private void append(ByteBuffer data, int from, int to) {
+		int length = to - from;
+		partial = ensureCapacity(partial, partialLength, length);
+		int position = data.position();
+		data.position(from);
+		data.get(partial, partialLength, length);
+		data.position(position);
+		partialLength += length;
+	}
+}
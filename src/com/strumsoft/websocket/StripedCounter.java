@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads add to without contending: each thread adds to one
+ * of several cells, picked by its id, and only reading sums them up. The
+ * cells are a cache line apart so that threads updating neighbouring cells
+ * don't slow each other down. Android before API 24 has no LongAdder.
+ *
+ * @author Animesh Kumar
+ */
+final class StripedCounter {
+
+	/**
+	 * Distance between two cells in longs, 64 bytes.
+	 */
+	private static final int PADDING = 8;
+
+	/**
+	 * Number of cells of a counter that many threads add to: two per
+	 * processor, at most 16.
+	 */
+	static final int SHARED = stripes();
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	/**
+	 * @param stripes
+	 *            number of cells, a power of two; 1 for a counter few threads
+	 *            add to, which then takes a single long
+	 */
+	StripedCounter(int stripes) {
+		if (stripes < 1 || (stripes & (stripes - 1)) != 0) {
+			throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+		}
+		this.cells = new AtomicLongArray((stripes - 1) * PADDING + 1);
+		this.mask = stripes - 1;
+	}
+
+	/**
+	 * Adds <var>delta</var> to the cell of the calling thread.
+	 */
+	void add(long delta) {
+		cells.addAndGet(cell(), delta);
+	}
+
+	void increment() {
+		cells.incrementAndGet(cell());
+	}
+
+	/**
+	 * @return the sum of all cells; not a snapshot if threads keep adding
+	 */
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	private int cell() {
+		return ((int) Thread.currentThread().getId() & mask) * PADDING;
+	}
+
+	// two cells per processor, at most 16
+	private static int stripes() {
+		int processors = Math.min(8, Runtime.getRuntime().availableProcessors());
+		return Integer.highestOneBit(processors * 2 - 1) << 1;
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * The <tt>TlsLayer</tt> runs an {@link SSLEngine} over a non-blocking
+ * {@link SocketChannel}, so "wss://" sockets stay on the shared event loop.
+ *
+ * Decrypted data is unwrapped straight into the caller's read buffer, which
+ * goes to the frame parser as is, and the queued frames of a gathering write
+ * are wrapped together into as few records as possible. The network buffers
+ * are borrowed from the {@link ByteBufferPool} only while they hold data.
+ *
+ * Delegated engine tasks (certificate checks) are run inline on the event
+ * loop thread.
+ *
+ * @author Animesh Kumar
+ */
+class TlsLayer {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final SSLEngine engine;
+	private final SocketChannel channel;
+	private final ByteBufferPool pool;
+	/**
+	 * Encrypted bytes read from the channel, kept flipped (ready to unwrap)
+	 * between calls. Null while empty.
+	 */
+	private ByteBuffer netIn;
+	/**
+	 * Encrypted bytes waiting to be written, flipped. Null while empty.
+	 */
+	private ByteBuffer netOut;
+	/**
+	 * Set when netIn holds only part of a record.
+	 */
+	private boolean underflow;
+	private boolean handshakeComplete;
+
+	TlsLayer(SSLEngine engine, SocketChannel channel, ByteBufferPool pool) {
+		this.engine = engine;
+		this.channel = channel;
+		this.pool = pool;
+		engine.setUseClientMode(true);
+	}
+
+	/**
+	 * @return the size a buffer needs to take one decrypted record
+	 */
+	int getApplicationBufferSize() {
+		return engine.getSession().getApplicationBufferSize();
+	}
+
+	/**
+	 * @return the engine, e.g. to look at its session
+	 */
+	SSLEngine getEngine() {
+		return engine;
+	}
+
+	boolean isHandshakeComplete() {
+		return handshakeComplete;
+	}
+
+	/**
+	 * @return true if encrypted data is waiting for the channel to take it
+	 */
+	boolean hasPendingOutput() {
+		return netOut != null && netOut.hasRemaining();
+	}
+
+	/**
+	 * @return true if input that can be decrypted without reading the
+	 *         channel again is buffered
+	 */
+	boolean hasBufferedInput() {
+		return netIn != null && netIn.hasRemaining() && !underflow;
+	}
+
+	/**
+	 * Advances the TLS handshake as far as the channel allows.
+	 *
+	 * @return true once the handshake is complete; false if it has to wait
+	 *         for the channel ({@link #hasPendingOutput()} tells whether for
+	 *         write or read readiness)
+	 * @throws IOException
+	 */
+	boolean handshake() throws IOException {
+		if (!handshakeComplete && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+			engine.beginHandshake();
+		}
+		while (!handshakeComplete) {
+			if (!flush()) {
+				return false;
+			}
+			switch (engine.getHandshakeStatus()) {
+			case NEED_TASK:
+				runDelegatedTasks();
+				break;
+			case NEED_WRAP:
+				wrap(EMPTY);
+				break;
+			case FINISHED:
+			case NOT_HANDSHAKING:
+				handshakeComplete = true;
+				break;
+			default:
+				// NEED_UNWRAP: the handshake produces no application data
+				ByteBuffer scratch = pool.acquire(getApplicationBufferSize());
+				try {
+					SSLEngineResult result = unwrap(scratch);
+					if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+						throw new SSLException("Connection closed during TLS handshake");
+					}
+					if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+						int n = fill();
+						if (n < 0) {
+							throw new EOFException("Connection closed during TLS handshake");
+						}
+						if (n == 0) {
+							return false;
+						}
+					}
+				} finally {
+					pool.release(scratch);
+				}
+				break;
+			}
+		}
+		return flush();
+	}
+
+	/**
+	 * Reads from the channel and decrypts into <var>dst</var>, which must have
+	 * room for {@link #getApplicationBufferSize()} bytes.
+	 *
+	 * @param dst
+	 *            buffer to decrypt into
+	 * @return number of bytes decrypted, or -1 at end of stream
+	 * @throws IOException
+	 */
+	int read(ByteBuffer dst) throws IOException {
+		int produced = 0;
+		try {
+			while (true) {
+				if (netIn != null && netIn.hasRemaining()) {
+					SSLEngineResult result = unwrap(dst);
+					produced += result.bytesProduced();
+					afterOperation(result);
+					switch (result.getStatus()) {
+					case OK:
+						if (result.bytesConsumed() > 0 || result.bytesProduced() > 0) {
+							continue;
+						}
+						return produced;
+					case BUFFER_OVERFLOW:
+						if (produced == 0) {
+							throw new SSLException("Read buffer too small for a TLS record");
+						}
+						return produced;
+					case CLOSED:
+						return produced > 0 ? produced : -1;
+					default:
+						// BUFFER_UNDERFLOW: need more of the record
+						break;
+					}
+				}
+				int n = fill();
+				if (n < 0) {
+					return produced > 0 ? produced : -1;
+				}
+				if (n == 0) {
+					return produced;
+				}
+			}
+		} finally {
+			if (netIn != null && !netIn.hasRemaining()) {
+				pool.release(netIn);
+				netIn = null;
+			}
+		}
+	}
+
+	/**
+	 * Encrypts and writes as much of <var>srcs</var> as the channel takes.
+	 *
+	 * @return number of plain bytes consumed
+	 * @throws IOException
+	 */
+	long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		long consumed = 0;
+		while (flush()) {
+			boolean remaining = false;
+			for (int i = offset; i < offset + length && !remaining; i++) {
+				remaining = srcs[i].hasRemaining();
+			}
+			if (!remaining) {
+				break;
+			}
+			SSLEngineResult result = wrap(srcs, offset, length);
+			consumed += result.bytesConsumed();
+			if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+				break;
+			}
+		}
+		return consumed;
+	}
+
+	/**
+	 * Writes pending encrypted data to the channel.
+	 *
+	 * @return true if nothing is left pending
+	 * @throws IOException
+	 */
+	boolean flush() throws IOException {
+		if (netOut == null) {
+			return true;
+		}
+		if (netOut.hasRemaining()) {
+			channel.write(netOut);
+			if (netOut.hasRemaining()) {
+				return false;
+			}
+		}
+		pool.release(netOut);
+		netOut = null;
+		return true;
+	}
+
+	/**
+	 * Sends close_notify if the channel takes it right away, and gives the
+	 * buffers back to the pool.
+	 */
+	void close() {
+		try {
+			engine.closeOutbound();
+			if (flush()) {
+				wrap(EMPTY);
+				flush();
+			}
+		} catch (IOException e) {
+			// the channel is going away anyway
+		}
+		pool.release(netIn);
+		pool.release(netOut);
+		netIn = netOut = null;
+	}
+
+	private SSLEngineResult unwrap(ByteBuffer dst) throws IOException {
+		if (netIn == null) {
+			underflow = true;
+			return new SSLEngineResult(SSLEngineResult.Status.BUFFER_UNDERFLOW, engine.getHandshakeStatus(), 0, 0);
+		}
+		SSLEngineResult result = engine.unwrap(netIn, dst);
+		underflow = result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW;
+		return result;
+	}
+
+	private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+		return wrap(new ByteBuffer[] { src }, 0, 1);
+	}
+
+	private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		netOut = pool.acquire(engine.getSession().getPacketBufferSize());
+		SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+		netOut.flip();
+		if (result.getStatus() == SSLEngineResult.Status.CLOSED && !engine.isOutboundDone()) {
+			throw new SSLException("TLS connection closed");
+		}
+		afterOperation(result);
+		return result;
+	}
+
+	// reads more encrypted bytes from the channel into netIn
+	private int fill() throws IOException {
+		if (netIn == null) {
+			netIn = pool.acquire(engine.getSession().getPacketBufferSize());
+			netIn.flip();
+		}
+		netIn.compact();
+		int n;
+		try {
+			n = channel.read(netIn);
+		} finally {
+			netIn.flip();
+		}
+		if (n > 0) {
+			underflow = false;
+		}
+		return n;
+	}
+
+	// handles handshake work the engine asks for after the initial handshake,
+	// e.g. TLS 1.3 key updates
+	private void afterOperation(SSLEngineResult result) throws IOException {
+		if (!handshakeComplete) {
+			return;
+		}
+		SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+		if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+			runDelegatedTasks();
+			status = engine.getHandshakeStatus();
+		}
+		if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP && flush()) {
+			wrap(EMPTY);
+			flush();
+		}
+	}
+
+	private void runDelegatedTasks() {
+		Runnable task;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+
+/**
+ * The <tt>TlsSessionCache</tt> bounds which "wss://" endpoints may resume
+ * their previous TLS session (abbreviated handshake, no certificate chain, no
+ * key exchange) when a socket reconnects to the same host and port.
+ *
+ * It does not hold the sessions that are resumed: those live in the client
+ * session cache of the {@link SSLContext}, which resumes by peer host and
+ * port, and which this class leaves as it is, since it may be shared (the
+ * default context is process-wide). It only remembers the last session of
+ * each of its endpoints, to invalidate it in that cache once the endpoint is
+ * not among the <var>capacity</var> used most recently, once the session is
+ * older than the timeout, or after a failed handshake. It is an invalidation
+ * helper, not a second cache.
+ *
+ * It also measures how long a connection takes from {@link WebSocketConnection#connect()}
+ * until the TLS handshake is done, separately for resumed and full handshakes.
+ *
+ * @author Animesh Kumar
+ */
+public class TlsSessionCache {
+
+	/**
+	 * Default number of endpoints kept.
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+	/**
+	 * Default lifetime of a cached session, in seconds.
+	 */
+	public static final int DEFAULT_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+	/**
+	 * The last session of each endpoint ("host:port"), least recently used
+	 * first; kept to be invalidated, not to be resumed from.
+	 */
+	private final LinkedHashMap<String, SSLSession> sessions;
+	private final int capacity;
+	private final int timeoutSeconds;
+
+	private long fullHandshakes;
+	private long fullHandshakeNanos;
+	private long resumedHandshakes;
+	private long resumedHandshakeNanos;
+	private long lastHandshakeNanos;
+
+	public TlsSessionCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_TIMEOUT_SECONDS);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of endpoints whose sessions may be resumed, at least 1
+	 * @param timeoutSeconds
+	 *            how long a session may be resumed after it was created
+	 */
+	public TlsSessionCache(int capacity, int timeoutSeconds) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.timeoutSeconds = timeoutSeconds;
+		this.sessions = new LinkedHashMap<String, SSLSession>(capacity + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SSLSession> eldest) {
+				if (size() > TlsSessionCache.this.capacity) {
+					eldest.getValue().invalidate();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Creates the client engine of a connection to <var>host</var>:<var>port</var>.
+	 * The context offers the session it has for that endpoint, unless it was
+	 * invalidated here because it expired.
+	 */
+	SSLEngine createEngine(SSLContext context, String host, int port) {
+		synchronized (this) {
+			// touch the entry so an endpoint in use isn't the next evicted
+			String key = key(host, port);
+			SSLSession session = sessions.get(key);
+			if (session != null
+					&& System.currentTimeMillis() - session.getCreationTime() > timeoutSeconds * 1000L) {
+				session.invalidate();
+				sessions.remove(key);
+			}
+		}
+		return context.createSSLEngine(host, port);
+	}
+
+	/**
+	 * Records the session of a completed handshake.
+	 *
+	 * @param startNanos
+	 *            {@link System#nanoTime()} when the connection was started
+	 * @return true if the handshake resumed the cached session
+	 */
+	synchronized boolean handshakeCompleted(String host, int port, SSLSession session, long startNanos) {
+		long elapsed = System.nanoTime() - startNanos;
+		SSLSession previous = sessions.put(key(host, port), session);
+		// TLS 1.2 resumes the session id; a TLS 1.3 ticket gives a new id but
+		// keeps the creation time of the session it was issued for
+		boolean resumed = previous != null && (previous == session
+				|| Arrays.equals(previous.getId(), session.getId())
+				|| previous.getCreationTime() == session.getCreationTime());
+		if (resumed) {
+			resumedHandshakes++;
+			resumedHandshakeNanos += elapsed;
+		} else {
+			fullHandshakes++;
+			fullHandshakeNanos += elapsed;
+		}
+		lastHandshakeNanos = elapsed;
+		return resumed;
+	}
+
+	/**
+	 * Forgets the session of an endpoint whose handshake failed, so the next
+	 * attempt starts from scratch.
+	 */
+	synchronized void handshakeFailed(String host, int port) {
+		SSLSession session = sessions.remove(key(host, port));
+		if (session != null) {
+			session.invalidate();
+		}
+	}
+
+	/**
+	 * Invalidates the sessions of all endpoints, so none is resumed.
+	 */
+	public synchronized void clear() {
+		for (SSLSession session : sessions.values()) {
+			session.invalidate();
+		}
+		sessions.clear();
+	}
+
+	/**
+	 * @return number of endpoints whose session may be resumed
+	 */
+	public synchronized int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return number of handshakes that resumed a cached session
+	 */
+	public synchronized long getResumedHandshakes() {
+		return resumedHandshakes;
+	}
+
+	/**
+	 * @return number of full handshakes
+	 */
+	public synchronized long getFullHandshakes() {
+		return fullHandshakes;
+	}
+
+	/**
+	 * @return mean time from connect to completed handshake of the resumed
+	 *         connections (the reconnect latency), in milliseconds; 0 if none
+	 */
+	public synchronized double getResumedLatencyMillis() {
+		return resumedHandshakes == 0 ? 0 : resumedHandshakeNanos / 1e6 / resumedHandshakes;
+	}
+
+	/**
+	 * @return mean time from connect to completed handshake of the connections
+	 *         with a full handshake, in milliseconds; 0 if none
+	 */
+	public synchronized double getFullLatencyMillis() {
+		return fullHandshakes == 0 ? 0 : fullHandshakeNanos / 1e6 / fullHandshakes;
+	}
+
+	/**
+	 * @return time from connect to completed handshake of the latest
+	 *         connection, in milliseconds
+	 */
+	public synchronized double getLastLatencyMillis() {
+		return lastHandshakeNanos / 1e6;
+	}
+
+	/**
+	 * Appends the handshake counts and latencies as a JSON object to
+	 * <var>out</var>.
+	 */
+	public synchronized void appendJson(StringBuilder out) {
+		out.append("{\"endpoints\":").append(sessions.size());
+		out.append(",\"resumedHandshakes\":").append(resumedHandshakes);
+		out.append(",\"resumedMeanMicros\":").append(
+				LatencyHistogram.micros(resumedHandshakes == 0 ? 0 : resumedHandshakeNanos / resumedHandshakes));
+		out.append(",\"fullHandshakes\":").append(fullHandshakes);
+		out.append(",\"fullMeanMicros\":").append(
+				LatencyHistogram.micros(fullHandshakes == 0 ? 0 : fullHandshakeNanos / fullHandshakes));
+		out.append(",\"lastMicros\":").append(LatencyHistogram.micros(lastHandshakeNanos)).append('}');
+	}
+
+	private static String key(String host, int port) {
+		return host.toLowerCase() + ":" + port;
+	}
+}
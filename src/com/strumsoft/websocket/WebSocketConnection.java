@@ -0,0 +1,1467 @@
+/*
+ * Copyright (c) 2010 Nathan Rajlich (https://github.com/TooTallNate)
+ * Copyright (c) 2010 Animesh Kumar (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.strumsoft.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * The <tt>WebSocketConnection</tt> is an implementation of WebSocket Client
+ * API, and expects a valid "ws://" or "wss://" URI to connect to. It does the
+ * connection, the handshake, the framing and the send queue, on a
+ * {@link WebSocketEventLoop}, and depends on nothing but the JDK, so it runs
+ * on a plain JVM as well as on Android. When connected, an instance recieves
+ * important events related to the life of the connection, like
+ * <var>onOpen</var>, <var>onClose</var>, <var>onError</var> and
+ * <var>onMessage</var>, and passes them to its {@link WebSocketListener}. An
+ * instance can send messages to the server via the <var>send</var> method.
+ *
+ * The Phonegap plugin's <tt>WebSocket</tt> is a thin adapter over this class
+ * that delivers the events to Javascript.
+ *
+ * @author Animesh Kumar
+ */
+public class WebSocketConnection {
+
+	/**
+	 * Enum for WebSocket Draft
+	 */
+	public enum Draft {
+		DRAFT75, DRAFT76, RFC6455
+	}
+
+	// //////////////// CONSTANT
+	/**
+	 * The connection has not yet been established.
+	 */
+	public final static int WEBSOCKET_STATE_CONNECTING = 0;
+	/**
+	 * The WebSocket connection is established and communication is possible.
+	 */
+	public final static int WEBSOCKET_STATE_OPEN = 1;
+	/**
+	 * The connection is going through the closing handshake.
+	 */
+	public final static int WEBSOCKET_STATE_CLOSING = 2;
+	/**
+	 * The connection has been closed or could not be opened.
+	 */
+	public final static int WEBSOCKET_STATE_CLOSED = 3;
+
+	/**
+	 * The default port of WebSockets, as defined in the spec.
+	 */
+	public static final int DEFAULT_PORT = 80;
+	/**
+	 * The default port of secure ("wss://") WebSockets.
+	 */
+	public static final int DEFAULT_SECURE_PORT = 443;
+	/**
+	 * The URI scheme of secure WebSockets.
+	 */
+	public static final String SECURE_SCHEME = "wss";
+	/**
+	 * The WebSocket protocol expects UTF-8 encoded bytes.
+	 */
+	public static final String UTF8_CHARSET = "UTF-8";
+	/**
+	 * The byte representing Carriage Return, or \r
+	 */
+	public static final byte DATA_CR = (byte) 0x0D;
+	/**
+	 * The byte representing Line Feed, or \n
+	 */
+	public static final byte DATA_LF = (byte) 0x0A;
+	/**
+	 * The byte representing the beginning of a WebSocket text frame.
+	 */
+	public static final byte DATA_START_OF_FRAME = (byte) 0x00;
+	/**
+	 * The byte representing the end of a WebSocket text frame.
+	 */
+	public static final byte DATA_END_OF_FRAME = (byte) 0xFF;
+	/**
+	 * The size of the buffer borrowed from the pool for each read.
+	 */
+	public static final int READ_BUFFER_SIZE = 16 * 1024;
+	/**
+	 * The default maximum number of queued buffers handed to a single
+	 * gathering write.
+	 */
+	public static final int DEFAULT_WRITE_BATCH_BUFFERS = 64;
+	/**
+	 * The default maximum number of bytes handed to a single gathering write.
+	 */
+	public static final int DEFAULT_WRITE_BATCH_BYTES = 64 * 1024;
+	/**
+	 * The default time an RFC 6455 close waits for the server before the
+	 * channel is closed anyway.
+	 */
+	public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+	/**
+	 * The default largest message, in bytes, accepted from an RFC 6455
+	 * server.
+	 */
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Most bytes of status line and headers taken from the server before the
+	 * blank line that ends them.
+	 */
+	private static final int MAX_HANDSHAKE_HEADER_SIZE = 16 * 1024;
+
+	/**
+	 * Logs what happens to the connections.
+	 */
+	private static final Logger LOG = Logger.getLogger("websocket");
+
+	// //////////////// INSTANCE Variables
+	/**
+	 * Receives the events of this connection.
+	 */
+	private final WebSocketListener listener;
+	/**
+	 * The unique id for this instance (helps to bind this to javascript events)
+	 */
+	private String id;
+	/**
+	 * The URI this client is supposed to connect to.
+	 */
+	private URI uri;
+	/**
+	 * The port of the websocket server
+	 */
+	private int port;
+	/**
+	 * The Draft of the WebSocket protocol the Client is adhering to.
+	 */
+	private Draft draft;
+	/**
+	 * The <tt>SocketChannel</tt> instance to use for this server connection.
+	 * This is used to read and write data to.
+	 */
+	private SocketChannel socketChannel;
+	/**
+	 * The TLS layer of a "wss://" connection, or null.
+	 */
+	private TlsLayer tls;
+	/**
+	 * Creates the {@link SSLEngine} of a "wss://" connection; the platform
+	 * default if null.
+	 */
+	private SSLContext sslContext;
+	/**
+	 * Checks the server certificate of a "wss://" connection against the
+	 * host instead of the engine's HTTPS endpoint identification, or null.
+	 */
+	private HostnameVerifier hostnameVerifier;
+	/**
+	 * Resumes the TLS sessions of earlier connections, or null.
+	 */
+	private TlsSessionCache sessionCache;
+	/**
+	 * {@link System#nanoTime()} at {@link #connect()}.
+	 */
+	private long connectStartNanos;
+	/**
+	 * The event loop this socket's channel is registered with.
+	 */
+	private final WebSocketEventLoop eventLoop;
+	/**
+	 * The key of {@link #socketChannel} in the event loop's selector.
+	 */
+	private SelectionKey selectionKey;
+	/**
+	 * Internally used to determine whether to recieve data as part of the
+	 * remote handshake, or as part of a text frame.
+	 */
+	private boolean handshakeComplete;
+	/**
+	 * The bytes that make up the remote handshake received so far.
+	 */
+	private byte[] remoteHandshake;
+	/**
+	 * Number of valid bytes in {@link #remoteHandshake}.
+	 */
+	private int remoteHandshakeLength;
+	/**
+	 * Offset in {@link #remoteHandshake} where the last scan for the end of
+	 * the headers stopped.
+	 */
+	private int remoteHandshakeScanned;
+	/**
+	 * Offset in {@link #remoteHandshake} just past the blank line ending the
+	 * headers, or -1 while it has not been seen.
+	 */
+	private int remoteHandshakeHeaderEnd = -1;
+	/**
+	 * Status code of the server's handshake response.
+	 */
+	private int handshakeStatus;
+	/**
+	 * Headers of the server's handshake response, keyed by lower-case name.
+	 */
+	private Map<String, String> handshakeHeaders;
+	/**
+	 * Queue of buffers that need to be sent to the client.
+	 */
+	private Queue<ByteBuffer> bufferQueue;
+	/**
+	 * Counters and latencies of this connection.
+	 */
+	private final ConnectionMetrics metrics;
+	/**
+	 * {@link System#nanoTime()} when the read being parsed completed.
+	 */
+	private long readNanos;
+	/**
+	 * Messages the read being parsed completed so far.
+	 */
+	private int readMessages;
+	/**
+	 * Messages received since the last one timed from read to dispatch; the
+	 * first one of a connection is timed.
+	 */
+	private int untimedMessages = ConnectionMetrics.DISPATCH_SAMPLE_EVERY - 1;
+	/**
+	 * Set while a flush of the bufferQueue is pending on the event loop, so
+	 * that a burst of sends hands over a single task.
+	 */
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+	/**
+	 * Flushes the bufferQueue on the event loop thread, which is the only
+	 * thread that ever writes to the socket channel.
+	 */
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			writeScheduled.set(false);
+			try {
+				_flush();
+			} catch (IOException e) {
+				onError(e);
+				_close();
+			}
+		}
+	};
+	/**
+	 * Maximum number of queued buffers handed to a single gathering write.
+	 */
+	private volatile int writeBatchBuffers = DEFAULT_WRITE_BATCH_BUFFERS;
+	/**
+	 * Maximum number of bytes handed to a single gathering write.
+	 */
+	private volatile int writeBatchBytes = DEFAULT_WRITE_BATCH_BYTES;
+	/**
+	 * The buffers of the gathering write in progress. Only used by the event
+	 * loop thread.
+	 */
+	private ByteBuffer[] writeBatch = new ByteBuffer[DEFAULT_WRITE_BATCH_BUFFERS];
+	/**
+	 * Number 1 used in handshake
+	 */
+	private int number1 = 0;
+	/**
+	 * Number 2 used in handshake
+	 */
+	private int number2 = 0;
+	/**
+	 * Key3 used in handshake
+	 */
+	private byte[] key3 = null;
+	/**
+	 * The readyState attribute represents the state of the connection.
+	 */
+	private volatile int readyState = WEBSOCKET_STATE_CONNECTING;
+
+	/**
+	 * Splits the bytes read after the handshake into messages.
+	 */
+	private final FrameParser frameParser;
+	/**
+	 * The Sec-WebSocket-Key sent in an RFC 6455 handshake.
+	 */
+	private String secWebSocketKey;
+	/**
+	 * The permessage-deflate extension offered in the handshake, or null.
+	 */
+	private PerMessageDeflate deflateOffer;
+	/**
+	 * The permessage-deflate extension the server accepted, or null.
+	 */
+	private PerMessageDeflate deflate;
+	/**
+	 * Source of the masking keys of RFC 6455 client frames.
+	 */
+	private SecureRandom maskRandom;
+	/**
+	 * Set once a close frame that needs no answer is queued; the channel is
+	 * closed as soon as the bufferQueue has been flushed.
+	 */
+	private volatile boolean closeAfterFlush;
+	/**
+	 * Time a queued close frame waits for the server before the channel is
+	 * closed anyway.
+	 */
+	private volatile long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+	/**
+	 * Set once the connection was failed; whatever the server sends from then
+	 * on is dropped.
+	 */
+	private boolean failed;
+	/**
+	 * Set by the one {@link #_close()} that tears the connection down.
+	 */
+	private final AtomicBoolean closed = new AtomicBoolean();
+	/**
+	 * Runs {@link #close()} on the event loop thread.
+	 */
+	private final Runnable closeTask = new Runnable() {
+		public void run() {
+			close();
+		}
+	};
+	/**
+	 * Runs {@link #_close()} on the event loop thread.
+	 */
+	private final Runnable closeNowTask = new Runnable() {
+		public void run() {
+			_close();
+		}
+	};
+	/**
+	 * Set unless a subclass overrides {@link #onMessage(String)}; text frames
+	 * then go from the parser's buffer to the listener without becoming a
+	 * String first.
+	 */
+	private final boolean directDispatch;
+	/**
+	 * Set if reading is paced by credits granted by the consumer.
+	 */
+	private volatile boolean flowControl;
+	/**
+	 * Messages that may still be received before reading pauses. May go
+	 * negative by the messages of a single read.
+	 */
+	private final AtomicInteger credits = new AtomicInteger();
+	/**
+	 * Resumes reading on the event loop thread once credits were granted.
+	 */
+	private final Runnable resumeReadTask = new Runnable() {
+		public void run() {
+			try {
+				_resumeRead();
+			} catch (IOException e) {
+				onError(e);
+				_close();
+			}
+		}
+	};
+
+	/**
+	 * Constructor. The connection is made by {@link #connect()}.
+	 *
+	 * @param eventLoop
+	 *            the {@link WebSocketEventLoop} to register with, usually
+	 *            shared by many connections
+	 * @param uri
+	 *            websocket server {@link URI}
+	 * @param draft
+	 *            websocket server {@link Draft} implementation (75/76/6455)
+	 * @param id
+	 *            unique id for this instance
+	 * @param listener
+	 *            the {@link WebSocketListener} receiving the events
+	 */
+	public WebSocketConnection(WebSocketEventLoop eventLoop, URI uri, Draft draft, String id,
+			WebSocketListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener must not be null");
+		}
+		this.listener = listener;
+		this.eventLoop = eventLoop;
+		this.uri = uri;
+		this.draft = draft;
+
+		// port
+		port = uri.getPort();
+		if (port == -1) {
+			port = _isSecure() ? DEFAULT_SECURE_PORT : DEFAULT_PORT;
+		}
+
+		// Id
+		this.id = id;
+
+		this.bufferQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+		this.metrics = new ConnectionMetrics(eventLoop != null ? eventLoop.getMetrics() : null);
+		this.handshakeComplete = false;
+		if (draft == Draft.RFC6455) {
+			this.frameParser = new Rfc6455FrameParser(this);
+			this.maskRandom = new SecureRandom();
+		} else {
+			this.frameParser = new SentinelFrameParser(this);
+		}
+		this.directDispatch = _inheritsOnMessage();
+	}
+
+	// //////////////////////////////////////////////////////////////////////////////////////
+	// /////////////////////////// WEB SOCKET API Methods
+	// ///////////////////////////////////
+	// //////////////////////////////////////////////////////////////////////////////////////
+	/**
+	 * Connects to server. The connection is driven by the event loop thread,
+	 * so unlike before there is no thread of its own to return. If the loop is
+	 * shut down, {@link #onError(Throwable)} and {@link #onClose()} fire on
+	 * the calling thread.
+	 *
+	 * @throws IOException
+	 *             also if a "wss://" URI is used and no default TLS context
+	 *             exists
+	 */
+	public void connect() throws IOException {
+		this.readyState = WEBSOCKET_STATE_CONNECTING;
+		this.connectStartNanos = System.nanoTime();
+		if (eventLoop.connecting(uri.toString())) {
+			this.metrics.recordReconnect();
+		}
+		// open socket
+		socketChannel = SocketChannel.open();
+		socketChannel.configureBlocking(false);
+		// set address
+		socketChannel.connect(new InetSocketAddress(uri.getHost(), port));
+		if (_isSecure()) {
+			SSLContext context = this.sslContext;
+			if (context == null) {
+				try {
+					context = SSLContext.getDefault();
+				} catch (NoSuchAlgorithmException e) {
+					throw new IOException("No default TLS context", e);
+				}
+			}
+			SSLEngine engine = this.sessionCache != null ? this.sessionCache.createEngine(context,
+					uri.getHost(), port) : context.createSSLEngine(uri.getHost(), port);
+			if (this.hostnameVerifier == null) {
+				_identifyEndpoint(engine);
+			}
+			this.tls = new TlsLayer(engine, socketChannel, eventLoop.getBufferPool());
+		}
+		// More info:
+		// http://groups.google.com/group/android-developers/browse_thread/thread/45a8b53e9bf60d82
+		// http://stackoverflow.com/questions/2879455/android-2-2-and-bad-address-family-on-socket-connect
+		System.setProperty("java.net.preferIPv4Stack", "true");
+		System.setProperty("java.net.preferIPv6Addresses", "false");
+
+		eventLoop.register(this);
+	}
+
+
+	/**
+	 * Limits how much of the send queue goes out in a single gathering write.
+	 * A burst of small messages is written with one system call, up to
+	 * <var>maxBuffers</var> frames or <var>maxBytes</var> bytes, whichever
+	 * comes first.
+	 *
+	 * @param maxBuffers
+	 *            maximum number of frames per write, at least 1
+	 * @param maxBytes
+	 *            maximum number of bytes per write; a single larger frame is
+	 *            still written on its own
+	 */
+	public void setWriteBatchLimits(int maxBuffers, int maxBytes) {
+		if (maxBuffers < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("Write batch limits must be positive");
+		}
+		this.writeBatchBuffers = maxBuffers;
+		this.writeBatchBytes = maxBytes;
+	}
+
+	/**
+	 * Sets how long an RFC 6455 close waits for the server to answer with its
+	 * own close frame, or to take the queued one, before the channel is
+	 * closed anyway.
+	 *
+	 * @param millis
+	 *            the timeout in milliseconds, at least 1
+	 */
+	public void setCloseTimeout(long millis) {
+		if (millis < 1) {
+			throw new IllegalArgumentException("Close timeout must be positive");
+		}
+		this.closeTimeoutMillis = millis;
+	}
+
+	/**
+	 * Sets the largest message, in bytes, accepted from the server. A larger
+	 * one, or one that inflates to more with permessage-deflate, fails the
+	 * connection with status code 1009 before it is buffered. Only used by
+	 * {@link Draft#RFC6455}.
+	 *
+	 * @param maxMessageSize
+	 *            the limit in bytes, at least 1
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize < 1) {
+			throw new IllegalArgumentException("Maximum message size must be positive");
+		}
+		if (this.frameParser instanceof Rfc6455FrameParser) {
+			((Rfc6455FrameParser) this.frameParser).setMaxMessageSize(maxMessageSize);
+		}
+	}
+
+	/**
+	 * Sets what "wss://" connections use for TLS. Only before
+	 * {@link #connect()}.
+	 *
+	 * @param sslContext
+	 *            creates the TLS engine, null for the platform default
+	 * @param hostnameVerifier
+	 *            checks the server certificate against the host once the
+	 *            handshake is done; null to have the TLS engine check it the
+	 *            way HTTPS does (RFC 2818), which is the default
+	 */
+	public void setSSLContext(SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+		this.sslContext = sslContext;
+		this.hostnameVerifier = hostnameVerifier;
+	}
+
+	/**
+	 * Bounds whether a "wss://" connection may resume a TLS session of an
+	 * earlier connection to the same host and port, and counts its
+	 * handshake. Only before {@link #connect()}.
+	 *
+	 * @param cache
+	 *            the cache, usually shared by all sockets of a factory; null
+	 *            to leave resuming to the SSL context alone
+	 */
+	public void setTlsSessionCache(TlsSessionCache cache) {
+		this.sessionCache = cache;
+	}
+
+	/**
+	 * Offers permessage-deflate compression in the handshake. Only used by
+	 * {@link Draft#RFC6455}, and only before {@link #connect()}.
+	 *
+	 * @param config
+	 *            the extension parameters; this socket works on a copy
+	 */
+	public void setPerMessageDeflate(PerMessageDeflate config) {
+		this.deflateOffer = config == null ? null : new PerMessageDeflate(config);
+	}
+
+	/**
+	 * Paces reading by credits: each message received takes one, and once
+	 * they are used up the socket stops reading until {@link #grantCredits(int)}
+	 * is called, leaving TCP flow control to hold back the server. At most the
+	 * messages of one more read arrive after the last credit. Only before
+	 * {@link #connect()}.
+	 *
+	 * @param initialCredits
+	 *            messages that may be received before the first grant
+	 */
+	public void setFlowControl(int initialCredits) {
+		if (initialCredits < 0) {
+			throw new IllegalArgumentException("Credits must not be negative");
+		}
+		this.credits.set(initialCredits);
+		this.flowControl = true;
+	}
+
+	/**
+	 * Lets <var>count</var> more messages be received, resuming reading if it
+	 * was paused. Called by the consumer once it processed messages.
+	 *
+	 * @param count
+	 *            number of messages
+	 */
+	public void grantCredits(int count) {
+		if (count <= 0 || !this.flowControl) {
+			return;
+		}
+		int after = this.credits.addAndGet(count);
+		if (after > 0 && after - count <= 0) {
+			eventLoop.execute(resumeReadTask);
+		}
+	}
+
+	/**
+	 * @return the credits left, or -1 without flow control
+	 */
+	public int getCredits() {
+		return this.flowControl ? Math.max(this.credits.get(), 0) : -1;
+	}
+
+	/**
+	 * Closes connection with server. An open RFC 6455 connection first sends
+	 * a close frame and closes the socket once the server answers with its
+	 * own, or closes its end, or the close timeout passes. The closing is done
+	 * by the event loop thread, which also fires {@link #onClose()}.
+	 */
+	public void close() {
+		if (this.readyState >= WEBSOCKET_STATE_CLOSING) {
+			return;
+		}
+		if (!eventLoop.inEventLoop()) {
+			if (!eventLoop.execute(closeTask)) {
+				// the loop is shut down, nothing can be sent anymore
+				_close();
+			}
+			return;
+		}
+		if (this.draft == Draft.RFC6455 && this.readyState == WEBSOCKET_STATE_OPEN) {
+			this.readyState = WEBSOCKET_STATE_CLOSING;
+			try {
+				_sendClose(Rfc6455Frames.CLOSE_NORMAL, false);
+				return;
+			} catch (IOException e) {
+				this.onError(e);
+			}
+		}
+		_close();
+	}
+
+	/**
+	 * Sends <var>data</var> to server as a binary message. Only supported by
+	 * {@link Draft#RFC6455}.
+	 *
+	 * @param data
+	 *            bytes to send to server
+	 */
+	public void sendBinary(byte[] data) {
+		if (this.readyState != WEBSOCKET_STATE_OPEN) {
+			_error(new NotYetConnectedException());
+			return;
+		}
+		if (this.draft != Draft.RFC6455) {
+			_error(new UnsupportedOperationException("Binary messages need " + Draft.RFC6455));
+			return;
+		}
+		try {
+			_write(_encode(Rfc6455Frames.OPCODE_BINARY, data));
+			this.metrics.recordMessageOut();
+		} catch (Exception e) {
+			_error(e);
+		}
+	}
+
+	/**
+	 * Sends <var>text</var> to server. The frame is queued and written by the
+	 * event loop thread, so this never blocks and messages go out in the order
+	 * they were sent.
+	 *
+	 * @param text
+	 *            String to send to server
+	 */
+	public void send(String text) {
+		if (this.readyState != WEBSOCKET_STATE_OPEN) {
+			_error(new NotYetConnectedException());
+			return;
+		}
+		try {
+			_send(text);
+			this.metrics.recordMessageOut();
+		} catch (Exception e) {
+			_error(e);
+		}
+	}
+
+	/**
+	 * Called when an entire text frame has been received.
+	 *
+	 * @param msg
+	 *            Message from websocket server
+	 */
+	public void onMessage(String msg) {
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Received a message: " + msg);
+		}
+		listener.onMessage(this, msg);
+	}
+
+	/**
+	 * Called when an entire binary message has been received
+	 * ({@link Draft#RFC6455} only).
+	 *
+	 * @param data
+	 *            the message, only valid for the duration of the call
+	 */
+	public void onBinaryMessage(ByteBuffer data) {
+		listener.onBinaryMessage(this, data);
+	}
+
+	public void onOpen() {
+		LOG.fine("Connected!");
+		listener.onOpen(this);
+	}
+
+	public void onClose() {
+		listener.onClose(this);
+	}
+
+	public void onError(Throwable t) {
+		LOG.fine("Error: " + t.getMessage());
+		t.printStackTrace();
+		listener.onError(this, t);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the counters and latencies of this connection
+	 */
+	public ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns when the read that completed the message being delivered
+	 * finished, so a listener can tell how long the message took to reach it.
+	 *
+	 * @return a {@link System#nanoTime()} value, only meaningful while a
+	 *         message is being delivered
+	 */
+	public long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * @return the readyState
+	 */
+	public int getReadyState() {
+		return readyState;
+	}
+
+	// //////////////////////////////////////////////////////////////////////////////////////
+	// /////////////////////////// WEB SOCKET Internal Methods
+	// //////////////////////////////
+	// //////////////////////////////////////////////////////////////////////////////////////
+
+	private void _send(String text) throws IOException {
+		if (!this.handshakeComplete) {
+			throw new NotYetConnectedException();
+		}
+		if (text == null) {
+			throw new NullPointerException("Cannot send 'null' data to a WebSocket.");
+		}
+
+		// Get 'text' into a WebSocket "frame" of bytes
+		byte[] textBytes = text.getBytes(UTF8_CHARSET.toString());
+		if (this.draft == Draft.RFC6455) {
+			_write(_encode(Rfc6455Frames.OPCODE_TEXT, textBytes));
+			return;
+		}
+		ByteBuffer b = ByteBuffer.allocate(textBytes.length + 2);
+		b.put(DATA_START_OF_FRAME);
+		b.put(textBytes);
+		b.put(DATA_END_OF_FRAME);
+		b.rewind();
+
+		_write(b);
+	}
+
+	// queues an RFC 6455 close frame. The channel is closed once the frame is
+	// written if closeAfterFlush, else when the server answers; and after the
+	// close timeout in any case, should the server neither answer nor read
+	private void _sendClose(int code, boolean closeAfterFlush) throws IOException {
+		byte[] payload = new byte[] { (byte) (code >> 8), (byte) code };
+		this.closeAfterFlush = closeAfterFlush;
+		eventLoop.schedule(closeNowTask, this.closeTimeoutMillis);
+		_write(Rfc6455Frames.encode(Rfc6455Frames.OPCODE_CLOSE, false, payload, 0, payload.length, _maskKey()));
+	}
+
+	// builds an RFC 6455 data frame, compressed if permessage-deflate is on
+	private ByteBuffer _encode(int opcode, byte[] payload) {
+		PerMessageDeflate deflate = this.deflate;
+		if (deflate != null) {
+			return deflate.encode(opcode, payload, _maskKey());
+		}
+		return Rfc6455Frames.encode(opcode, false, payload, 0, payload.length, _maskKey());
+	}
+
+	private int _maskKey() {
+		return this.maskRandom.nextInt();
+	}
+
+	// fires onError on the event loop thread, like every other callback
+	private void _error(final Throwable t) {
+		if (eventLoop.inEventLoop()) {
+			this.onError(t);
+			return;
+		}
+		boolean taken = eventLoop.execute(new Runnable() {
+			public void run() {
+				onError(t);
+			}
+		});
+		if (!taken) {
+			this.onError(t);
+		}
+	}
+
+	// closes the channel right away and fires onClose, once, on the event loop
+	// thread: the TLS layer, the inflater and the pooled buffers are only
+	// touched there. Once the loop is shut down, on the calling thread.
+	void _close() {
+		if (!eventLoop.inEventLoop() && eventLoop.execute(closeNowTask)) {
+			return;
+		}
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		this.readyState = WEBSOCKET_STATE_CLOSING;
+
+		if (this.tls != null) {
+			if (!this.tls.isHandshakeComplete() && this.sessionCache != null) {
+				this.sessionCache.handshakeFailed(uri.getHost(), port);
+			}
+			this.tls.close();
+		}
+
+		// close socket channel
+		try {
+			if (this.socketChannel != null) {
+				this.socketChannel.close();
+			}
+		} catch (IOException e) {
+			this.onError(e);
+		}
+
+		// whatever was not sent by now never will be
+		int discarded = 0;
+		while (this.bufferQueue.poll() != null) {
+			discarded++;
+		}
+		if (discarded > 0) {
+			this.metrics.recordDiscarded(discarded);
+		}
+
+		if (this.deflate != null) {
+			this.deflate.end();
+		}
+
+		// fire onClose method
+		this.onClose();
+
+		this.readyState = WEBSOCKET_STATE_CLOSED;
+	}
+
+	// called on the event loop thread
+	void _register(Selector selector) throws IOException {
+		if (!this.socketChannel.isOpen()) {
+			return;
+		}
+		this.selectionKey = this.socketChannel.register(selector, SelectionKey.OP_CONNECT, this);
+	}
+
+	// called on the event loop thread when the channel finished connecting
+	void _onConnectable() throws IOException {
+		if (socketChannel.isConnectionPending()) {
+			socketChannel.finishConnect();
+		}
+		selectionKey.interestOps(SelectionKey.OP_READ);
+		if (this.tls != null) {
+			_handshakeTls();
+		} else {
+			_writeHandshake();
+		}
+	}
+
+	// called on the event loop thread when the channel can take more data
+	void _onWritable() throws IOException {
+		if (this.tls != null && !this.tls.isHandshakeComplete()) {
+			_handshakeTls();
+		} else {
+			_flush();
+		}
+	}
+
+	// called on the event loop thread when the channel has data to read
+	void _onReadable() throws IOException {
+		if (this.tls != null && !this.tls.isHandshakeComplete()) {
+			_handshakeTls();
+			if (!this.tls.hasBufferedInput()) {
+				return;
+			}
+		}
+		try {
+			_read();
+		} catch (NoSuchAlgorithmException nsa) {
+			this.onError(nsa);
+		} catch (ProtocolException e) {
+			if (this.draft != Draft.RFC6455 || this.readyState != WEBSOCKET_STATE_OPEN) {
+				throw e;
+			}
+			_fail(e instanceof MessageTooBigException ? Rfc6455Frames.CLOSE_MESSAGE_TOO_BIG
+					: Rfc6455Frames.CLOSE_PROTOCOL_ERROR, e);
+		}
+	}
+
+	// fails the connection (RFC 6455 section 7.1.7): reports cause and queues
+	// a close frame with code. What the server sends from then on is read
+	// and dropped until it closes its end or the close timeout passes.
+	private void _fail(int code, ProtocolException cause) throws IOException {
+		this.failed = true;
+		this.readyState = WEBSOCKET_STATE_CLOSING;
+		this.onError(cause);
+		_sendClose(code, false);
+		// a paused reader would not see the server go away
+		if (selectionKey != null && selectionKey.isValid()) {
+			selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	// has the engine check the server certificate against the host, as HTTPS
+	// does, and name the host in the handshake (SNI)
+	private void _identifyEndpoint(SSLEngine engine) {
+		SSLParameters parameters = engine.getSSLParameters();
+		parameters.setEndpointIdentificationAlgorithm("HTTPS");
+		String host = uri.getHost();
+		// SNI carries names only, no IP addresses
+		if (host.indexOf(':') < 0 && !host.matches("[0-9.]+")) {
+			parameters.setServerNames(Collections.<SNIServerName> singletonList(new SNIHostName(host)));
+		}
+		engine.setSSLParameters(parameters);
+	}
+
+	// advances the TLS handshake; once done, runs the custom host check if
+	// there is one and starts the WebSocket handshake
+	private void _handshakeTls() throws IOException {
+		boolean complete = this.tls.handshake();
+		int ops = SelectionKey.OP_READ;
+		if (!complete && this.tls.hasPendingOutput()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		selectionKey.interestOps(ops);
+		if (!complete) {
+			return;
+		}
+
+		SSLSession session = this.tls.getEngine().getSession();
+		if (this.hostnameVerifier != null && !this.hostnameVerifier.verify(uri.getHost(), session)) {
+			throw new SSLPeerUnverifiedException("Certificate does not match " + uri.getHost());
+		}
+		if (this.sessionCache != null) {
+			this.sessionCache.handshakeCompleted(uri.getHost(), port, session, connectStartNanos);
+		}
+		_writeHandshake();
+	}
+
+	private boolean _isSecure() {
+		return SECURE_SCHEME.equalsIgnoreCase(uri.getScheme());
+	}
+
+	private void _writeHandshake() throws IOException {
+		String path = this.uri.getPath();
+		if (path.indexOf("/") != 0) {
+			path = "/" + path;
+		}
+
+		int defaultPort = _isSecure() ? DEFAULT_SECURE_PORT : DEFAULT_PORT;
+		String host = uri.getHost() + (port != defaultPort ? ":" + port : "");
+		String origin = "*"; // TODO: Make 'origin' configurable
+		String request = "GET " + path + " HTTP/1.1\r\n" + "Upgrade: WebSocket\r\n" + "Connection: Upgrade\r\n"
+				+ "Host: " + host + "\r\n" + "Origin: " + origin + "\r\n";
+
+		// Add the key and version for RFC 6455
+		if (this.draft == Draft.RFC6455) {
+			byte[] key = new byte[16];
+			this.maskRandom.nextBytes(key);
+			this.secWebSocketKey = Base64.encodeBytes(key);
+			request += "Sec-WebSocket-Key: " + this.secWebSocketKey + "\r\n";
+			request += "Sec-WebSocket-Version: 13\r\n";
+			if (this.deflateOffer != null) {
+				request += "Sec-WebSocket-Extensions: " + this.deflateOffer.offer() + "\r\n";
+			}
+		}
+
+		// Add random keys for Draft76
+		if (this.draft == Draft.DRAFT76) {
+			request += "Sec-WebSocket-Key1: " + this._randomKey() + "\r\n";
+			request += "Sec-WebSocket-Key2: " + this._randomKey() + "\r\n";
+			request += "\r\n";
+			this.key3 = new byte[8];
+			(new Random()).nextBytes(this.key3);
+
+			// Convert to bytes early so last eight bytes don't get jacked
+			byte[] bRequest = request.getBytes(UTF8_CHARSET);
+
+			byte[] bToSend = new byte[bRequest.length + 8];
+
+			// Copy in the Request bytes
+			System.arraycopy(bRequest, 0, bToSend, 0, bRequest.length);
+
+			// Now tack on key3 bytes
+			System.arraycopy(this.key3, 0, bToSend, bRequest.length, this.key3.length);
+
+			// Now we can send all keys as a single frame
+			_write(ByteBuffer.wrap(bToSend));
+			return;
+		}
+
+		request += "\r\n";
+		_write(ByteBuffer.wrap(request.getBytes(UTF8_CHARSET)));
+	}
+
+	// queues b and makes sure the event loop thread will flush it
+	private void _write(ByteBuffer b) throws IOException {
+		if (!this.bufferQueue.offer(b)) {
+			throw new IOException("Buffers are full, message could not be sent to"
+					+ this.socketChannel.socket().getRemoteSocketAddress());
+		}
+		this.metrics.recordQueued();
+		if (eventLoop.inEventLoop()) {
+			_flush();
+		} else if (writeScheduled.compareAndSet(false, true) && !eventLoop.execute(flushTask)) {
+			writeScheduled.set(false);
+			throw new IOException("The event loop is shut down");
+		}
+	}
+
+	// called on the event loop thread only. Writes as much of the bufferQueue
+	// as the socket takes, and keeps OP_WRITE interest only while some is left.
+	private void _flush() throws IOException {
+		if (selectionKey == null || !selectionKey.isValid()) {
+			return;
+		}
+		boolean drained = _write();
+		if (drained && this.closeAfterFlush) {
+			_close();
+			return;
+		}
+		int ops = selectionKey.interestOps();
+		int wanted = drained ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE;
+		if (wanted != ops) {
+			selectionKey.interestOps(wanted);
+		}
+	}
+
+	// drains the bufferQueue with gathering writes, each bounded by
+	// writeBatchBuffers and writeBatchBytes. Returns false if the socket did
+	// not take everything.
+	private boolean _write() throws IOException {
+		if (this.writeBatch.length != this.writeBatchBuffers) {
+			this.writeBatch = new ByteBuffer[this.writeBatchBuffers];
+		}
+		ByteBuffer[] batch = this.writeBatch;
+		int maxBytes = this.writeBatchBytes;
+
+		while (true) {
+			if (this.tls != null && !this.tls.flush()) {
+				return false; // encrypted data of the previous batch is pending
+			}
+			int count = 0;
+			long bytes = 0;
+			for (ByteBuffer buffer : this.bufferQueue) {
+				if (count == batch.length || (count > 0 && bytes + buffer.remaining() > maxBytes)) {
+					break;
+				}
+				batch[count++] = buffer;
+				bytes += buffer.remaining();
+			}
+			if (count == 0) {
+				return true;
+			}
+
+			if (this.tls != null) {
+				this.tls.write(batch, 0, count);
+			} else {
+				this.socketChannel.write(batch, 0, count);
+			}
+
+			boolean finished = true;
+			long left = 0;
+			for (int i = 0; i < count; i++) {
+				left += batch[i].remaining();
+				if (finished && batch[i].remaining() == 0) {
+					this.bufferQueue.poll(); // Buffer finished. Remove it.
+					this.metrics.recordDequeued();
+				} else {
+					finished = false; // Didn't finish this buffer. There's
+					// more to send.
+				}
+				batch[i] = null;
+			}
+			this.metrics.recordBytesOut(bytes - left);
+			if (!finished || (this.tls != null && this.tls.hasPendingOutput())) {
+				return false;
+			}
+		}
+	}
+
+	private void _read() throws IOException, NoSuchAlgorithmException {
+		// the read buffer is borrowed only while this read is in progress
+		ByteBufferPool pool = eventLoop.getBufferPool();
+		ByteBuffer readBuffer = pool.acquire(this.tls != null ? Math.max(READ_BUFFER_SIZE,
+				this.tls.getApplicationBufferSize()) : READ_BUFFER_SIZE);
+		try {
+			// TLS may have decrypted more records than fit into one buffer
+			do {
+				readBuffer.clear();
+				_read(readBuffer);
+			} while (this.tls != null && this.tls.hasBufferedInput()
+					&& this.readyState != WEBSOCKET_STATE_CLOSED && !_pauseRead());
+		} finally {
+			pool.release(readBuffer);
+		}
+		_pauseRead();
+	}
+
+	// stops read interest once the credits are used up; grantCredits() hands
+	// _resumeRead() over to the event loop when they go positive again
+	private boolean _pauseRead() {
+		if (!this.flowControl || this.failed || this.credits.get() > 0) {
+			return false;
+		}
+		if (selectionKey != null && selectionKey.isValid()) {
+			int ops = selectionKey.interestOps();
+			if ((ops & SelectionKey.OP_READ) != 0) {
+				selectionKey.interestOps(ops & ~SelectionKey.OP_READ);
+			}
+		}
+		return true;
+	}
+
+	// called on the event loop thread after credits were granted
+	private void _resumeRead() throws IOException {
+		if (this.credits.get() <= 0 || selectionKey == null || !selectionKey.isValid()) {
+			return;
+		}
+		int ops = selectionKey.interestOps();
+		if ((ops & SelectionKey.OP_READ) == 0) {
+			selectionKey.interestOps(ops | SelectionKey.OP_READ);
+		}
+		// records TLS decrypted before the pause won't wake the selector
+		if (this.tls != null && this.tls.hasBufferedInput()) {
+			_onReadable();
+		}
+	}
+
+	private void _read(ByteBuffer readBuffer) throws IOException, NoSuchAlgorithmException {
+		int bytesRead = -1;
+		try {
+			bytesRead = this.tls != null ? this.tls.read(readBuffer) : socketChannel.read(readBuffer);
+			readBuffer.flip();
+		} catch (Exception ex) {
+			LOG.fine("Could not read data from socket channel, ex=" + ex.toString());
+		}
+
+		if (bytesRead == -1) {
+			LOG.fine("All Bytes readed");
+			_close();
+		} else if (bytesRead > 0) {
+			this.readNanos = System.nanoTime();
+			this.readMessages = 0;
+			this.metrics.recordBytesIn(bytesRead);
+			if (!this.handshakeComplete) {
+				_readHandshake(readBuffer);
+			}
+			// frames may have arrived together with the handshake
+			if (this.handshakeComplete && readBuffer.hasRemaining() && !this.failed) {
+				_readFrame(readBuffer);
+			}
+			if (this.readMessages > 0) {
+				this.metrics.recordMessagesIn(this.readMessages);
+			}
+		}
+	}
+
+	private void _readFrame(ByteBuffer data) throws IOException {
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("_readFrame - bytesRead: " + data.remaining());
+		}
+		this.frameParser.parse(data);
+	}
+
+	// called by the frame parser for every complete text frame; text is only
+	// valid for the duration of the call
+	void _onTextFrame(CharBuffer text) {
+		_countMessageIn();
+		if (this.flowControl) {
+			this.credits.decrementAndGet();
+		}
+		if (this.directDispatch) {
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Received a message: " + text);
+			}
+			this.listener.onMessage(this, text);
+		} else {
+			this.onMessage(text.toString());
+		}
+	}
+
+	// true unless a subclass overrides onMessage(String)
+	private boolean _inheritsOnMessage() {
+		try {
+			return getClass().getMethod("onMessage", String.class).getDeclaringClass() == WebSocketConnection.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	// called by the frame parser for every complete binary message
+	void _onBinaryFrame(ByteBuffer data) {
+		_countMessageIn();
+		if (this.flowControl) {
+			this.credits.decrementAndGet();
+		}
+		this.onBinaryMessage(data);
+	}
+
+	// counts a message of the read being parsed, and times one in
+	// DISPATCH_SAMPLE_EVERY from the read: a timestamp per message would cost
+	// more than the rest of the path
+	private void _countMessageIn() {
+		this.readMessages++;
+		if (++this.untimedMessages == ConnectionMetrics.DISPATCH_SAMPLE_EVERY) {
+			this.untimedMessages = 0;
+			this.metrics.recordReadToDispatch(System.nanoTime() - this.readNanos);
+		}
+	}
+
+	// called by the frame parser for every ping; answers with a pong
+	void _onPing(ByteBuffer payload) throws IOException {
+		byte[] pong = new byte[payload.remaining()];
+		payload.get(pong);
+		_write(Rfc6455Frames.encode(Rfc6455Frames.OPCODE_PONG, false, pong, 0, pong.length, _maskKey()));
+	}
+
+	// called by the frame parser when the server sends a close frame
+	void _onCloseFrame(int code, String reason) throws IOException {
+		LOG.fine("Server closed the connection: " + code + " " + reason);
+		if (this.readyState == WEBSOCKET_STATE_OPEN) {
+			// echo the close frame, then close
+			this.readyState = WEBSOCKET_STATE_CLOSING;
+			_sendClose(code == Rfc6455Frames.CLOSE_NO_STATUS ? Rfc6455Frames.CLOSE_NORMAL : code, true);
+		} else {
+			_close();
+		}
+	}
+
+	// Appends the bytes of data to the remote handshake. Once the headers and
+	// the Draft 76 challenge response are in, the handshake is completed and
+	// data is left positioned at the first byte that belongs to a frame.
+	private void _readHandshake(ByteBuffer data) throws IOException, NoSuchAlgorithmException {
+		int received = data.remaining();
+		if (this.remoteHandshake == null) {
+			this.remoteHandshake = new byte[Math.max(received, 256)];
+		} else if (this.remoteHandshakeLength + received > this.remoteHandshake.length) {
+			byte[] grown = new byte[Math.max(this.remoteHandshakeLength + received, this.remoteHandshake.length * 2)];
+			System.arraycopy(this.remoteHandshake, 0, grown, 0, this.remoteHandshakeLength);
+			this.remoteHandshake = grown;
+		}
+		data.get(this.remoteHandshake, this.remoteHandshakeLength, received);
+		this.remoteHandshakeLength += received;
+
+		byte[] h = this.remoteHandshake;
+		if (this.remoteHandshakeHeaderEnd < 0) {
+			// Look for 0x0D 0x0A 0x0D 0x0A (or two CRLFs), resuming where the
+			// previous read stopped
+			int i = Math.max(this.remoteHandshakeScanned, 3);
+			for (; i < this.remoteHandshakeLength; i++) {
+				if (h[i] == DATA_LF && h[i - 1] == DATA_CR && h[i - 2] == DATA_LF && h[i - 3] == DATA_CR) {
+					this.remoteHandshakeHeaderEnd = i + 1;
+					break;
+				}
+			}
+			this.remoteHandshakeScanned = i;
+			if (this.remoteHandshakeHeaderEnd < 0) {
+				if (this.remoteHandshakeLength > MAX_HANDSHAKE_HEADER_SIZE) {
+					this.remoteHandshake = null;
+					throw new ProtocolException("Handshake response headers longer than "
+							+ MAX_HANDSHAKE_HEADER_SIZE + " bytes");
+				}
+				return;
+			}
+			_parseHandshakeHeaders(new String(h, 0, this.remoteHandshakeHeaderEnd - 4, UTF8_CHARSET));
+		}
+
+		// Draft 76 servers follow the headers with a 16 byte challenge response
+		int bodyLength = this.draft == Draft.DRAFT76 ? 16 : 0;
+		int end = this.remoteHandshakeHeaderEnd + bodyLength;
+		if (this.remoteHandshakeLength < end) {
+			return;
+		}
+
+		// hand back whatever came after the handshake
+		data.position(data.limit() - (this.remoteHandshakeLength - end));
+
+		byte[] body = null;
+		if (bodyLength > 0) {
+			body = new byte[bodyLength];
+			System.arraycopy(h, this.remoteHandshakeHeaderEnd, body, 0, bodyLength);
+		}
+		this.remoteHandshake = null;
+
+		if (this.handshakeStatus != 101) {
+			this.handshakeComplete = true;
+			data.position(data.limit());
+			this.onError(new IOException("Unexpected handshake response status: " + this.handshakeStatus));
+			_close();
+			return;
+		}
+		_readHandshake(body);
+	}
+
+	// parses the status line and headers of the server's handshake response
+	private void _parseHandshakeHeaders(String response) {
+		this.handshakeHeaders = new HashMap<String, String>();
+		String[] lines = response.split("\r\n");
+
+		// Status line, e.g. "HTTP/1.1 101 WebSocket Protocol Handshake"
+		String[] status = lines[0].split(" ", 3);
+		try {
+			this.handshakeStatus = status.length > 1 ? Integer.parseInt(status[1]) : -1;
+		} catch (NumberFormatException e) {
+			this.handshakeStatus = -1;
+		}
+
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon > 0) {
+				this.handshakeHeaders.put(lines[i].substring(0, colon).trim().toLowerCase(),
+						lines[i].substring(colon + 1).trim());
+			}
+		}
+	}
+
+	private void _readHandshake(byte[] handShakeBody) throws IOException, NoSuchAlgorithmException {
+		this.handshakeComplete = true;
+		boolean isConnectionReady = true;
+
+		if (this.draft == Draft.RFC6455) {
+			String accept = this.handshakeHeaders.get("sec-websocket-accept");
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			String expected = Base64.encodeBytes(sha1.digest((this.secWebSocketKey + Rfc6455Frames.ACCEPT_GUID)
+					.getBytes(UTF8_CHARSET)));
+			if (!expected.equals(accept)) {
+				this.onError(new IOException("Invalid Sec-WebSocket-Accept: " + accept));
+				isConnectionReady = false;
+			} else if (this.deflateOffer != null
+					&& this.deflateOffer.accept(this.handshakeHeaders.get("sec-websocket-extensions"))) {
+				this.deflate = this.deflateOffer;
+				((Rfc6455FrameParser) this.frameParser).setPerMessageDeflate(this.deflate);
+			}
+		}
+
+		/* TODO: verify that this works. Was commented before due to null pointer exception */
+		if (this.draft == Draft.DRAFT76) {
+			if (handShakeBody == null) {
+				isConnectionReady = true;
+			}
+			byte[] challenge = new byte[] { (byte) (this.number1 >> 24), (byte) ((this.number1 << 8) >> 24),
+					(byte) ((this.number1 << 16) >> 24), (byte) ((this.number1 << 24) >> 24),
+					(byte) (this.number2 >> 24), (byte) ((this.number2 << 8) >> 24),
+					(byte) ((this.number2 << 16) >> 24), (byte) ((this.number2 << 24) >> 24), this.key3[0],
+					this.key3[1], this.key3[2], this.key3[3], this.key3[4], this.key3[5], this.key3[6], this.key3[7] };
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			byte[] expected = md5.digest(challenge);
+			for (int i = 0; i < handShakeBody.length; i++) {
+				if (expected[i] != handShakeBody[i]) {
+					isConnectionReady = true;
+				}
+			}
+		}
+		/* END */
+
+		if (isConnectionReady) {
+			this.metrics.recordHandshake(System.nanoTime() - this.connectStartNanos);
+			this.readyState = WEBSOCKET_STATE_OPEN;
+			// fire onOpen method
+			this.onOpen();
+		} else {
+			_close();
+		}
+	}
+
+	private String _randomKey() {
+		Random r = new Random();
+		long maxNumber = 4294967295L;
+		long spaces = r.nextInt(12) + 1;
+		int max = new Long(maxNumber / spaces).intValue();
+		max = Math.abs(max);
+		int number = r.nextInt(max) + 1;
+		if (this.number1 == 0) {
+			this.number1 = number;
+		} else {
+			this.number2 = number;
+		}
+		long product = number * spaces;
+		String key = Long.toString(product);
+		int numChars = r.nextInt(12);
+		for (int i = 0; i < numChars; i++) {
+			int position = r.nextInt(key.length());
+			position = Math.abs(position);
+			char randChar = (char) (r.nextInt(95) + 33);
+			// exclude numbers here
+			if (randChar >= 48 && randChar <= 57) {
+				randChar -= 15;
+			}
+			key = new StringBuilder(key).insert(position, randChar).toString();
+		}
+		for (int i = 0; i < spaces; i++) {
+			int n = key.length() - 1;
+			int position;
+			if(n == 0) {
+				position = 1;
+			} else {
+				position = r.nextInt(n) + 1;
+			}
+			key = new StringBuilder(key).insert(position, "\u0020").toString();
+		}
+		return key;
+	}
+}
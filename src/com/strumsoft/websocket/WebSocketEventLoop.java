@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The <tt>WebSocketEventLoop</tt> owns a single {@link Selector} and the
+ * thread that drives it. Every {@link WebSocketConnection} created with it
+ * (all sockets of a factory share one) registers its channel here, so any
+ * number of connections is served by one thread instead of one thread (and
+ * one selector) per connection.
+ *
+ * Selector registration and interest changes must happen on the loop thread,
+ * so other threads hand work over through {@link #execute(Runnable)}. Work
+ * due later, like a close timeout, is kept by the loop, which wakes up from
+ * the selector in time for it.
+ *
+ * @author Animesh Kumar
+ */
+public class WebSocketEventLoop implements Runnable {
+
+	/**
+	 * Endpoints remembered to count reconnects; beyond this many the memory
+	 * starts over.
+	 */
+	private static final int MAX_ENDPOINTS = 1024;
+
+	/**
+	 * The selector shared by all registered sockets.
+	 */
+	private final Selector selector;
+	/**
+	 * Read buffers borrowed by the sockets of this loop.
+	 */
+	private final ByteBufferPool bufferPool = new ByteBufferPool();
+	/**
+	 * Tasks handed over by other threads, run on the loop thread before
+	 * dispatching ready keys.
+	 */
+	private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+	/**
+	 * Tasks due later, soonest first. Only used by the loop thread.
+	 */
+	private final PriorityQueue<Timeout> timeouts = new PriorityQueue<Timeout>();
+	/**
+	 * Totals of the metrics of all sockets of this loop.
+	 */
+	private final ConnectionMetrics metrics = new ConnectionMetrics(null);
+	/**
+	 * Endpoints sockets of this loop connected to.
+	 */
+	private final Set<String> endpoints = new HashSet<String>();
+	/**
+	 * The thread running this loop, started lazily on first use.
+	 */
+	private Thread thread;
+	/**
+	 * Keeps track of whether or not the loop thread should continue running.
+	 */
+	private volatile boolean running;
+	/**
+	 * Set by {@link #shutdown()}; no task is taken from then on.
+	 */
+	private volatile boolean shutdown;
+
+	/**
+	 * Instantiates a new event loop. The thread is not started until the first
+	 * task is submitted.
+	 *
+	 * @throws IOException
+	 *             if the selector cannot be opened
+	 */
+	public WebSocketEventLoop() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Registers the channel of <var>socket</var> for connect readiness. The
+	 * socket receives its readiness callbacks on the loop thread from then on.
+	 * After {@link #shutdown()} it fails and is closed on the calling thread
+	 * instead.
+	 *
+	 * @param socket
+	 *            a socket whose channel is already connecting
+	 */
+	void register(final WebSocketConnection socket) {
+		boolean taken = execute(new Runnable() {
+			public void run() {
+				try {
+					socket._register(selector);
+				} catch (IOException e) {
+					socket.onError(e);
+					socket._close();
+				}
+			}
+		});
+		if (!taken) {
+			socket.onError(new IOException("The event loop is shut down"));
+			socket._close();
+		}
+	}
+
+	/**
+	 * Runs <var>task</var> on the loop thread.
+	 *
+	 * @param task
+	 *            task to run
+	 * @return false if the loop is shut down and the task will never run
+	 */
+	boolean execute(Runnable task) {
+		if (shutdown) {
+			return false;
+		}
+		pendingTasks.offer(task);
+		if (shutdown && pendingTasks.remove(task)) {
+			// shut down meanwhile, before the loop got to it
+			return false;
+		}
+		start();
+		selector.wakeup();
+		return true;
+	}
+
+	/**
+	 * Runs <var>task</var> on the loop thread, <var>delayMillis</var>
+	 * milliseconds from now.
+	 *
+	 * @param task
+	 *            task to run
+	 * @param delayMillis
+	 *            delay in milliseconds
+	 */
+	void schedule(Runnable task, long delayMillis) {
+		final Timeout timeout = new Timeout(System.nanoTime() + delayMillis * 1000000L, task);
+		if (inEventLoop()) {
+			timeouts.add(timeout);
+			return;
+		}
+		execute(new Runnable() {
+			public void run() {
+				timeouts.add(timeout);
+			}
+		});
+	}
+
+	/**
+	 * @return the pool sockets borrow their read buffers from
+	 */
+	ByteBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * @return the totals of the metrics of all sockets of this loop
+	 */
+	public ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Notes that a socket connects to <var>endpoint</var>.
+	 *
+	 * @return true if a socket of this loop connected to it before
+	 */
+	synchronized boolean connecting(String endpoint) {
+		if (endpoints.size() >= MAX_ENDPOINTS && !endpoints.contains(endpoint)) {
+			endpoints.clear();
+		}
+		return !endpoints.add(endpoint);
+	}
+
+	/**
+	 * @return true if the caller is running on the loop thread
+	 */
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Stops the loop thread and closes the selector. Sockets still registered
+	 * are not closed. Tasks are refused from then on, so a socket connected
+	 * with this loop afterwards fails right away.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		running = false;
+		if (thread == null) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		selector.wakeup();
+	}
+
+	private synchronized void start() {
+		if (thread == null && selector.isOpen()) {
+			running = true;
+			thread = new Thread(this, "WebSocketEventLoop");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				selector.select(millisToNextTimeout());
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			runPendingTasks();
+			runTimeouts();
+
+			Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+			while (i.hasNext()) {
+				SelectionKey key = i.next();
+				i.remove();
+				dispatch(key);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void runPendingTasks() {
+		Runnable task;
+		while ((task = pendingTasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// how long the selector may block, 0 for as long as it takes
+	private long millisToNextTimeout() {
+		Timeout next = timeouts.peek();
+		if (next == null) {
+			return 0;
+		}
+		long nanos = next.deadline - System.nanoTime();
+		return nanos <= 0 ? 1 : (nanos + 999999) / 1000000;
+	}
+
+	private void runTimeouts() {
+		long now = System.nanoTime();
+		Timeout timeout;
+		while ((timeout = timeouts.peek()) != null && timeout.deadline - now <= 0) {
+			timeouts.poll();
+			try {
+				timeout.task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void dispatch(SelectionKey key) {
+		WebSocketConnection socket = (WebSocketConnection) key.attachment();
+		try {
+			if (key.isValid() && key.isConnectable()) {
+				socket._onConnectable();
+			}
+			if (key.isValid() && key.isReadable()) {
+				socket._onReadable();
+			}
+			if (key.isValid() && key.isWritable()) {
+				socket._onWritable();
+			}
+		} catch (CancelledKeyException e) {
+			// socket was closed while we were dispatching; nothing to do
+		} catch (Exception e) {
+			socket.onError(e);
+			socket._close();
+		}
+	}
+
+	/**
+	 * A task and the {@link System#nanoTime()} it is due at.
+	 */
+	private static final class Timeout implements Comparable<Timeout> {
+		final long deadline;
+		final Runnable task;
+
+		Timeout(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		public int compareTo(Timeout other) {
+			return Long.signum(deadline - other.deadline);
+		}
+	}
+}
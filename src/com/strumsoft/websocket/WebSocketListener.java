@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The <tt>WebSocketListener</tt> receives the events of a
+ * {@link WebSocketConnection} in Java. The Phonegap plugin's sockets deliver
+ * theirs to Javascript through one; a listener of its own lets a socket serve
+ * native code instead, without touching a WebView: no script is built and
+ * nothing is posted to the UI thread.
+ *
+ * All callbacks run on the event loop thread, which may serve many sockets,
+ * so they should return quickly and hand long work to another
+ * thread. Messages are views of the socket's buffers and only valid for the
+ * duration of the call; copy what has to be kept.
+ *
+ * @author Animesh Kumar
+ */
+public interface WebSocketListener {
+
+	/**
+	 * Called when the handshake completed and messages can be sent.
+	 *
+	 * @param socket
+	 *            the socket
+	 */
+	void onOpen(WebSocketConnection socket);
+
+	/**
+	 * Called for every text message.
+	 *
+	 * @param socket
+	 *            the socket
+	 * @param text
+	 *            the message, only valid for the duration of the call
+	 */
+	void onMessage(WebSocketConnection socket, CharSequence text);
+
+	/**
+	 * Called for every binary message ({@link WebSocketConnection.Draft#RFC6455} only).
+	 *
+	 * @param socket
+	 *            the socket
+	 * @param data
+	 *            the message, only valid for the duration of the call
+	 */
+	void onBinaryMessage(WebSocketConnection socket, ByteBuffer data);
+
+	/**
+	 * Called once the connection is closed, or could not be opened.
+	 *
+	 * @param socket
+	 *            the socket
+	 */
+	void onClose(WebSocketConnection socket);
+
+	/**
+	 * Called when something went wrong; usually followed by
+	 * {@link #onClose(WebSocketConnection)}.
+	 *
+	 * @param socket
+	 *            the socket
+	 * @param t
+	 *            what went wrong
+	 */
+	void onError(WebSocketConnection socket, Throwable t);
+}
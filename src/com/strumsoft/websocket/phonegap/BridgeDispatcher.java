@@ -0,0 +1,718 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.strumsoft.websocket.WebSocketConnection;
+import com.strumsoft.websocket.WebSocketListener;
+
+import android.util.Log;
+
+/**
+ * The <tt>BridgeDispatcher</tt> carries the events of all sockets of a
+ * {@link WebSocketFactory} over to Javascript. Instead of one
+ * <tt>post()</tt> and one script per message, events arriving within a short
+ * interval are collected and delivered as a single call to
+ * <tt>WebSocket.dispatch([...])</tt>, which fans them out in order. The
+ * scripts go through a {@link BridgeTransport}. It is the
+ * {@link WebSocketListener} of every socket talking to Javascript.
+ *
+ * A batch is delivered when the first event in it is {@link #getMaxDelay()}
+ * milliseconds old or when it grows beyond {@link #getMaxBatchSize()}
+ * characters, whichever comes first.
+ *
+ * Events wait in two lanes. Open, close and error events go to the control
+ * lane; they are delivered right away and come first in the batch, ahead of
+ * the messages waiting in the data lane, except that a socket's close still
+ * follows the messages it received before. Messages are never held back by
+ * a control event. The data lane can be bounded
+ * ({@link #setDataLaneLimit(int)}): when the UI thread falls behind, the
+ * oldest messages are shed, while control events are never dropped.
+ *
+ * Messages of a conflated feed ({@link #dispatchConflated(String, String, String)})
+ * replace the pending message with the same key instead of being added, so
+ * each batch carries only the latest value per key. They keep their place
+ * relative to the other events of the batch.
+ *
+ * In pull mode ({@link #setPullMode(InboundRing)}) messages are not pushed at
+ * all; they wait in an {@link InboundRing} until Javascript drains it, and
+ * only a request to drain goes through the control lane, when the ring stops
+ * being empty.
+ *
+ * With a {@link BridgeTracer} set, every n-th message is timed on its way to
+ * the page; without one, that costs a volatile read per message.
+ *
+ * Once warmed up, queuing a message allocates nothing: the lanes, control
+ * events and conflation slots are reused, and a socket hands over the text
+ * still in its frame parser's buffer. What remains is the script of each
+ * batch, one String per bridge crossing.
+ *
+ * @author Animesh Kumar
+ */
+class BridgeDispatcher implements WebSocketListener {
+
+	/**
+	 * Default latency bound of a batch, about one frame at 60 fps.
+	 */
+	static final long DEFAULT_MAX_DELAY = 16;
+	/**
+	 * Default size bound of a batch, in characters of script.
+	 */
+	static final int DEFAULT_MAX_BATCH_SIZE = 64 * 1024;
+
+	private static final String BATCH_START = "WebSocket.dispatch([";
+	private static final String BATCH_END = "])";
+	/**
+	 * Overhead of an event in the script besides its data, roughly.
+	 */
+	private static final int EVENT_OVERHEAD = 48;
+	/**
+	 * Conflation slots kept for reuse between batches; beyond this many, the
+	 * idle ones are let go.
+	 */
+	private static final int MAX_RETAINED_SLOTS = 1024;
+	/**
+	 * The Javascript method draining the ring in pull mode.
+	 */
+	private static final String EVENT_PULL = "_pull";
+
+	private volatile BridgeTransport transport;
+
+	/**
+	 * Open, close and error events (and requests to drain) waiting to be
+	 * delivered.
+	 */
+	private ArrayDeque<PendingEvent> controlLane = new ArrayDeque<PendingEvent>();
+	/**
+	 * Messages waiting to be delivered.
+	 */
+	private DataLane dataLane = new DataLane();
+	/**
+	 * Empty lanes to swap in for the ones being delivered; null while a
+	 * delivery has them.
+	 */
+	private ArrayDeque<PendingEvent> spareControlLane = new ArrayDeque<PendingEvent>();
+	private DataLane spareDataLane = new DataLane();
+	/**
+	 * Control events delivered, for reuse.
+	 */
+	private final ArrayDeque<PendingEvent> freeEvents = new ArrayDeque<PendingEvent>();
+	/**
+	 * The script being built. Only used by the delivering thread.
+	 */
+	private final StringBuilder script = new StringBuilder(BATCH_START);
+	/**
+	 * Approximate size of the pending conflated messages, in characters of
+	 * script.
+	 */
+	private int conflatedSize;
+	/**
+	 * Set while a delivery is posted to the UI thread.
+	 */
+	private boolean deliveryScheduled;
+	/**
+	 * Set while a delivery is posted to run right away, so that a burst of
+	 * messages posts it once rather than per message.
+	 */
+	private boolean urgentScheduled;
+	/**
+	 * Set while the control lane holds a request to drain the ring.
+	 */
+	private boolean pullRequested;
+	/**
+	 * Maximum number of messages in the data lane.
+	 */
+	private int dataLaneLimit = Integer.MAX_VALUE;
+	/**
+	 * Number of messages shed from the data lane.
+	 */
+	private long shedCount;
+	/**
+	 * Number of events delivered to the transport.
+	 */
+	private long deliveredCount;
+
+	private volatile long maxDelay = DEFAULT_MAX_DELAY;
+	private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	/**
+	 * Holds the messages in pull mode; null in push mode.
+	 */
+	private volatile InboundRing ring;
+	/**
+	 * Traces sampled messages; null while tracing is off.
+	 */
+	private volatile BridgeTracer tracer;
+	/**
+	 * A slot per socket and key seen lately, pending or not, so that a feed
+	 * with a steady set of keys allocates none per message.
+	 */
+	private final HashMap<ConflatedMessage, ConflatedMessage> slots = new HashMap<ConflatedMessage, ConflatedMessage>();
+	/**
+	 * The slots holding a message waiting to be moved to the data lane, in
+	 * order of arrival of the first message per key.
+	 */
+	private final ArrayList<ConflatedMessage> conflated = new ArrayList<ConflatedMessage>();
+	/**
+	 * Looks up slots without allocating a key.
+	 */
+	private final ConflatedMessage probe = new ConflatedMessage();
+	/**
+	 * Number of messages that went through conflation.
+	 */
+	private long conflatedCount;
+	/**
+	 * Number of those replaced by a later message before being delivered.
+	 */
+	private long droppedCount;
+
+	/**
+	 * An event waiting in a lane.
+	 */
+	private static class PendingEvent {
+		String target;
+		String event;
+		String data;
+	}
+
+	/**
+	 * The slot of a socket and key, with the latest message for it, or null
+	 * while none is pending.
+	 */
+	private static class ConflatedMessage {
+		String target;
+		String key;
+		String message;
+
+		@Override
+		public int hashCode() {
+			return target.hashCode() * 31 + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			ConflatedMessage other = (ConflatedMessage) o;
+			return target.equals(other.target) && key.equals(other.key);
+		}
+	}
+
+	/**
+	 * Delivers the pending batch; runs on the UI thread.
+	 */
+	private final Runnable deliverTask = new Runnable() {
+		public void run() {
+			deliver();
+		}
+	};
+
+	BridgeDispatcher(BridgeTransport transport) {
+		this.transport = transport;
+	}
+
+	public void onOpen(WebSocketConnection socket) {
+		dispatchEvent(socket.getId(), WebSocket.EVENT_ON_OPEN, WebSocket.BLANK_MESSAGE);
+	}
+
+	public void onMessage(WebSocketConnection socket, CharSequence text) {
+		ConflationKeyExtractor extractor = socket instanceof WebSocket ? ((WebSocket) socket).getConflation()
+				: null;
+		if (extractor == null) {
+			BridgeTracer t = this.tracer;
+			if (t != null && t.sample() && this.ring == null) {
+				dispatchTraced(socket.getId(), text, t, socket.getReadNanos(), System.nanoTime());
+			} else {
+				dispatchMessage(socket.getId(), text);
+			}
+			return;
+		}
+		String message = text.toString();
+		String key = extractor.keyOf(message);
+		if (key != null) {
+			dispatchConflated(socket.getId(), key, message);
+		} else {
+			dispatchMessage(socket.getId(), message);
+		}
+	}
+
+	/**
+	 * The bridge carries text only, so binary messages are dropped.
+	 */
+	public void onBinaryMessage(WebSocketConnection socket, ByteBuffer data) {
+		Log.v("websocket", "Dropped a binary message of " + data.remaining() + " bytes");
+	}
+
+	public void onClose(WebSocketConnection socket) {
+		dispatchEvent(socket.getId(), WebSocket.EVENT_ON_CLOSE, WebSocket.BLANK_MESSAGE);
+	}
+
+	public void onError(WebSocketConnection socket, Throwable t) {
+		dispatchEvent(socket.getId(), WebSocket.EVENT_ON_ERROR, t.getMessage());
+	}
+
+	/**
+	 * Queues a message for the Javascript object of socket <var>target</var>.
+	 * Called from the event loop.
+	 *
+	 * @param target
+	 *            id of the socket
+	 * @param message
+	 *            the text message, only read during the call
+	 */
+	void dispatchMessage(String target, CharSequence message) {
+		InboundRing r = this.ring;
+		if (r == null) {
+			synchronized (this) {
+				// conflated messages that came first go first
+				moveConflated();
+				offerData(target, message, -1);
+				scheduleDelivery(false);
+			}
+			return;
+		}
+		boolean wasEmpty;
+		try {
+			wasEmpty = r.offer(target, message.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (wasEmpty) {
+			requestPull();
+		}
+	}
+
+	/**
+	 * Queues a message like {@link #dispatchMessage(String, CharSequence)} in
+	 * push mode, and traces it.
+	 *
+	 * @param read
+	 *            when the read that completed the message finished
+	 * @param decode
+	 *            when the socket handed the message over
+	 */
+	private void dispatchTraced(String target, CharSequence message, BridgeTracer t, long read, long decode) {
+		synchronized (this) {
+			moveConflated();
+			int trace = t.begin(read, decode);
+			offerData(target, message, trace);
+			scheduleDelivery(false);
+			t.enqueued(trace);
+		}
+	}
+
+	/**
+	 * Queues a message of a conflated feed, replacing a pending message of
+	 * socket <var>target</var> with the same key. In pull mode messages are
+	 * queued as they come. Called from the event loop.
+	 *
+	 * @param target
+	 *            id of the socket
+	 * @param key
+	 *            the message's conflation key
+	 * @param message
+	 *            the text message
+	 */
+	void dispatchConflated(String target, String key, String message) {
+		if (this.ring != null) {
+			dispatchMessage(target, message);
+			return;
+		}
+		synchronized (this) {
+			conflatedCount++;
+			probe.target = target;
+			probe.key = key;
+			ConflatedMessage slot = slots.get(probe);
+			if (slot == null) {
+				slot = new ConflatedMessage();
+				slot.target = target;
+				slot.key = key;
+				slots.put(slot, slot);
+			} else if (slot.message != null) {
+				slot.message = message;
+				droppedCount++;
+				return;
+			}
+			slot.message = message;
+			conflated.add(slot);
+			conflatedSize += message.length() + EVENT_OVERHEAD;
+			scheduleDelivery(false);
+		}
+	}
+
+	/**
+	 * @return how many messages went through conflation and how many of them
+	 *         were dropped for a later one, as a JSON object
+	 */
+	synchronized String getConflationStats() {
+		return "{\"conflated\":" + conflatedCount + ",\"dropped\":" + droppedCount + ",\"pending\":"
+				+ conflated.size() + "}";
+	}
+
+	/**
+	 * Queues an open, close or error event for the Javascript object of socket
+	 * <var>target</var> in the control lane and has it delivered right away.
+	 * May be called from any thread.
+	 *
+	 * @param target
+	 *            id of the socket
+	 * @param event
+	 *            the event method, e.g. "onclose"
+	 * @param data
+	 *            the event's data
+	 */
+	void dispatchEvent(String target, String event, String data) {
+		synchronized (this) {
+			controlLane.add(newEvent(target, event, data));
+			scheduleDelivery(true);
+		}
+	}
+
+	/**
+	 * Takes up to <var>maxCount</var> messages from the ring in pull mode.
+	 * If some are left, Javascript is asked to drain again.
+	 *
+	 * @return a JSON array of <tt>{"_target":id,"_data":message}</tt>
+	 *         objects; empty in push mode
+	 */
+	String drain(int maxCount) {
+		InboundRing r = this.ring;
+		if (r == null) {
+			return "[]";
+		}
+		String messages = r.drain(maxCount);
+		if (r.size() > 0) {
+			requestPull();
+		}
+		return messages;
+	}
+
+	/**
+	 * Switches between push and pull mode, before any messages arrive.
+	 *
+	 * @param ring
+	 *            the ring to hold messages, or null to push them
+	 */
+	void setPullMode(InboundRing ring) {
+		this.ring = ring;
+	}
+
+	/**
+	 * @return the statistics of the ring as a JSON object, or null in push
+	 *         mode
+	 */
+	String getPullStats() {
+		InboundRing r = this.ring;
+		return r == null ? null : r.getStats();
+	}
+
+	/**
+	 * Asks Javascript to drain the ring, unless the batch on its way already
+	 * does.
+	 */
+	private synchronized void requestPull() {
+		if (!pullRequested) {
+			pullRequested = true;
+			controlLane.add(newEvent(null, EVENT_PULL, null));
+			scheduleDelivery(false);
+		}
+	}
+
+	/**
+	 * Takes a control event from the free list. Caller holds the lock.
+	 */
+	private PendingEvent newEvent(String target, String event, String data) {
+		PendingEvent pending = freeEvents.poll();
+		if (pending == null) {
+			pending = new PendingEvent();
+		}
+		pending.target = target;
+		pending.event = event;
+		pending.data = data;
+		return pending;
+	}
+
+	/**
+	 * Moves the pending conflated messages to the data lane. Caller holds the
+	 * lock.
+	 */
+	private void moveConflated() {
+		int count = conflated.size();
+		if (count == 0) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			ConflatedMessage slot = conflated.get(i);
+			offerData(slot.target, slot.message, -1);
+			slot.message = null;
+		}
+		conflated.clear();
+		conflatedSize = 0;
+		if (slots.size() > MAX_RETAINED_SLOTS) {
+			slots.clear();
+		}
+	}
+
+	/**
+	 * Adds a message to the data lane, shedding the oldest one if the lane is
+	 * full. Caller holds the lock.
+	 *
+	 * @param trace
+	 *            trace id of the message, or -1
+	 */
+	private void offerData(String target, CharSequence message, int trace) {
+		if (dataLane.size() >= dataLaneLimit) {
+			dataLane.shed();
+			shedCount++;
+		}
+		dataLane.add(target, message, trace);
+	}
+
+	/**
+	 * Posts delivery of the batch, right away if <var>urgent</var> or the
+	 * batch is full. Caller holds the lock.
+	 */
+	private void scheduleDelivery(boolean urgent) {
+		if (urgent || dataLane.length() + conflatedSize >= maxBatchSize) {
+			if (urgentScheduled) {
+				return;
+			}
+			if (deliveryScheduled) {
+				transport.cancel(deliverTask);
+			}
+			deliveryScheduled = true;
+			urgentScheduled = true;
+			transport.post(deliverTask, 0);
+		} else if (!deliveryScheduled) {
+			deliveryScheduled = true;
+			transport.post(deliverTask, maxDelay);
+		}
+	}
+
+	/**
+	 * Sets how long a message may wait for others to share its batch, and how
+	 * large a batch may grow.
+	 *
+	 * @param maxDelay
+	 *            latency bound in milliseconds; 0 delivers whatever is
+	 *            pending as soon as the UI thread gets to it
+	 * @param maxBatchSize
+	 *            size bound in characters of script; a single larger message
+	 *            is delivered on its own, and what does not fit waits for
+	 *            the next delivery, posted right away
+	 */
+	void setBatchLimits(long maxDelay, int maxBatchSize) {
+		if (maxDelay < 0 || maxBatchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch limits");
+		}
+		this.maxDelay = maxDelay;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Bounds the data lane. When the UI thread falls behind and the lane is
+	 * full, the oldest message is shed for each new one, which also bounds
+	 * how long a close event can wait behind messages.
+	 *
+	 * @param maxMessages
+	 *            maximum number of messages waiting, at least 1
+	 */
+	synchronized void setDataLaneLimit(int maxMessages) {
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("Data lane limit must be positive");
+		}
+		this.dataLaneLimit = maxMessages;
+	}
+
+	/**
+	 * @return the lane counters as a JSON object
+	 */
+	synchronized String getLaneStats() {
+		return "{\"pendingControl\":" + controlLane.size() + ",\"pendingData\":" + dataLane.size()
+				+ ",\"dataLaneLimit\":" + dataLaneLimit + ",\"shed\":" + shedCount + ",\"delivered\":"
+				+ deliveredCount + "}";
+	}
+
+	long getMaxDelay() {
+		return maxDelay;
+	}
+
+	int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Replaces the transport, before any events are dispatched.
+	 *
+	 * @param transport
+	 *            the new transport
+	 */
+	void setTransport(BridgeTransport transport) {
+		if (transport == null) {
+			throw new IllegalArgumentException("Transport must not be null");
+		}
+		synchronized (this) {
+			this.transport = transport;
+		}
+	}
+
+	BridgeTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Starts or stops tracing messages.
+	 *
+	 * @param tracer
+	 *            the tracer, or null to stop
+	 */
+	void setTracer(BridgeTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	BridgeTracer getTracer() {
+		return tracer;
+	}
+
+	void setKeyboardStatus(boolean status) {
+		BridgeTransport t = this.transport;
+		if (t instanceof LoadUrlTransport) {
+			((LoadUrlTransport) t).setKeyboardStatus(status);
+		}
+	}
+
+	private void deliver() {
+		BridgeTracer t = this.tracer;
+		long run = t != null ? System.nanoTime() : 0;
+		ArrayDeque<PendingEvent> control;
+		DataLane data;
+		synchronized (this) {
+			deliveryScheduled = false;
+			urgentScheduled = false;
+			pullRequested = false;
+			moveConflated();
+			if (controlLane.isEmpty() && dataLane.size() == 0) {
+				return;
+			}
+			control = controlLane;
+			data = dataLane;
+			controlLane = spareControlLane != null ? spareControlLane : new ArrayDeque<PendingEvent>();
+			dataLane = spareDataLane != null ? spareDataLane : new DataLane();
+			spareControlLane = null;
+			spareDataLane = null;
+		}
+
+		int batchSize = maxBatchSize;
+		int limit = batchSize - BATCH_END.length();
+		int delivered = 0;
+		int controlDelivered = 0;
+		script.setLength(BATCH_START.length());
+		for (PendingEvent event : control) {
+			if (delivered > 0 && script.length() >= limit) {
+				break;
+			}
+			if (WebSocket.EVENT_ON_CLOSE.equals(event.event)) {
+				// the socket's own messages still come before its close
+				delivered += data.takeTarget(event.target, script, limit, t, run);
+				if (data.hasTarget(event.target)) {
+					break;
+				}
+			}
+			appendEvent(script, event.target, event.event, event.data);
+			script.append(',');
+			delivered++;
+			controlDelivered++;
+		}
+		if (controlDelivered == control.size() && (delivered == 0 || script.length() < limit)) {
+			delivered += data.take(script, limit, t, run);
+		}
+		// drop the comma after the last event
+		script.setLength(script.length() - 1);
+		script.append(BATCH_END);
+		synchronized (this) {
+			for (int i = 0; i < controlDelivered; i++) {
+				PendingEvent event = control.poll();
+				event.target = null;
+				event.data = null;
+				freeEvents.add(event);
+			}
+			deliveredCount += delivered;
+			if (control.isEmpty() && data.size() == 0) {
+				data.trim();
+				spareControlLane = control;
+				spareDataLane = data;
+			} else {
+				// what did not fit goes back in front of what came meanwhile
+				control.addAll(controlLane);
+				controlLane.clear();
+				data.pack();
+				data.append(dataLane);
+				dataLane.trim();
+				spareControlLane = controlLane;
+				spareDataLane = dataLane;
+				controlLane = control;
+				dataLane = data;
+				scheduleDelivery(true);
+			}
+		}
+		transport.evaluate(script.toString());
+		if (script.capacity() > 2 * batchSize) {
+			// a single large message grew it beyond the batch size
+			script.setLength(0);
+			script.trimToSize();
+			script.append(BATCH_START);
+		}
+	}
+
+	/**
+	 * Appends the event object the Javascript side expects; the data goes in
+	 * as a string literal. A request to drain has neither target nor data.
+	 */
+	static void appendEvent(StringBuilder out, String target, String event, CharSequence data) {
+		appendEvent(out, target, event, -1, data);
+	}
+
+	/**
+	 * Appends an event object like
+	 * {@link #appendEvent(StringBuilder, String, String, CharSequence)}, with
+	 * the id of its trace unless <var>trace</var> is negative.
+	 */
+	static void appendEvent(StringBuilder out, String target, String event, int trace, CharSequence data) {
+		out.append("{\"_event\":\"").append(event).append('"');
+		if (target != null) {
+			out.append(",\"_target\":\"").append(target).append('"');
+			if (trace >= 0) {
+				out.append(",\"_trace\":").append(trace);
+			}
+			out.append(",\"_data\":");
+			JavaScriptString.appendQuoted(out, data);
+		}
+		out.append('}');
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.strumsoft.websocket.LatencyHistogram;
+
+/**
+ * Follows every n-th message of a {@link BridgeDispatcher} from the socket to
+ * the page and keeps a histogram of each stage:
+ * <ol>
+ * <li>read to decode: from the read that completed the message until the
+ * frame parser handed over its text</li>
+ * <li>decode to enqueue: until it waited in the data lane with a delivery
+ * posted to the UI thread</li>
+ * <li>enqueue to run: until the delivery that took it into its script
+ * started running</li>
+ * <li>run to callback: until <tt>WebSocket.onmessage</tt> was entered and
+ * reported it through {@link WebSocketFactory#traceCallback(int)}</li>
+ * </ol>
+ * and one of the whole way. All times are taken with {@link System#nanoTime()}
+ * in Java; the last one includes the call back over the bridge.
+ *
+ * A traced message carries its trace id to Javascript as <tt>_trace</tt>.
+ * Messages that are shed, conflated or pulled are not traced, and a trace
+ * whose slot was taken by a later one before it completed is dropped.
+ *
+ * @author Animesh Kumar
+ */
+class BridgeTracer {
+
+	/**
+	 * Traces in flight at once, a power of two.
+	 */
+	private static final int MAX_IN_FLIGHT = 256;
+
+	/**
+	 * The timestamps of one traced message.
+	 */
+	private static class Trace {
+		int id = -1;
+		long read;
+		long decode;
+		long enqueue;
+		long run;
+	}
+
+	private final int sampleEvery;
+	private final AtomicInteger seen = new AtomicInteger();
+	private final Trace[] traces = new Trace[MAX_IN_FLIGHT];
+	private int nextId;
+	private long completed;
+
+	private final LatencyHistogram readToDecode = new LatencyHistogram();
+	private final LatencyHistogram decodeToEnqueue = new LatencyHistogram();
+	private final LatencyHistogram enqueueToRun = new LatencyHistogram();
+	private final LatencyHistogram runToCallback = new LatencyHistogram();
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	/**
+	 * @param sampleEvery
+	 *            trace one message out of this many
+	 */
+	BridgeTracer(int sampleEvery) {
+		if (sampleEvery < 1) {
+			throw new IllegalArgumentException("Invalid sample rate: " + sampleEvery);
+		}
+		this.sampleEvery = sampleEvery;
+	}
+
+	/**
+	 * @return true if the message at hand is to be traced
+	 */
+	boolean sample() {
+		return seen.incrementAndGet() % sampleEvery == 0;
+	}
+
+	/**
+	 * Starts the trace of a message about to be queued.
+	 *
+	 * @param read
+	 *            when the read that completed it finished
+	 * @param decode
+	 *            when its text was handed over
+	 * @return the trace id
+	 */
+	synchronized int begin(long read, long decode) {
+		int id = nextId++ & Integer.MAX_VALUE;
+		int slot = id & (MAX_IN_FLIGHT - 1);
+		Trace trace = traces[slot];
+		if (trace == null) {
+			trace = traces[slot] = new Trace();
+		}
+		trace.id = id;
+		trace.read = read;
+		trace.decode = decode;
+		trace.run = 0;
+		return id;
+	}
+
+	/**
+	 * Notes that message <var>id</var> waits in the data lane with its
+	 * delivery posted.
+	 */
+	synchronized void enqueued(int id) {
+		Trace trace = traces[id & (MAX_IN_FLIGHT - 1)];
+		if (trace.id == id) {
+			trace.enqueue = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Notes that message <var>id</var> went into the script of a delivery
+	 * that started at <var>run</var>.
+	 */
+	synchronized void delivering(int id, long run) {
+		Trace trace = traces[id & (MAX_IN_FLIGHT - 1)];
+		if (trace.id == id) {
+			trace.run = run;
+		}
+	}
+
+	/**
+	 * Completes trace <var>id</var>, whose message just reached its
+	 * callback.
+	 */
+	void called(int id) {
+		long callback = System.nanoTime();
+		synchronized (this) {
+			Trace trace = traces[id & (MAX_IN_FLIGHT - 1)];
+			if (id < 0 || trace == null || trace.id != id || trace.run == 0) {
+				return;
+			}
+			readToDecode.record(trace.decode - trace.read);
+			decodeToEnqueue.record(trace.enqueue - trace.decode);
+			enqueueToRun.record(trace.run - trace.enqueue);
+			runToCallback.record(callback - trace.run);
+			total.record(callback - trace.read);
+			trace.id = -1;
+			completed++;
+		}
+	}
+
+	/**
+	 * @return the histograms of the stages as a JSON object
+	 */
+	synchronized String getStats() {
+		StringBuilder json = new StringBuilder(1024);
+		json.append("{\"sampleEvery\":").append(sampleEvery).append(",\"traced\":").append(completed);
+		json.append(",\"readToDecode\":");
+		readToDecode.appendJson(json);
+		json.append(",\"decodeToEnqueue\":");
+		decodeToEnqueue.appendJson(json);
+		json.append(",\"enqueueToRun\":");
+		enqueueToRun.appendJson(json);
+		json.append(",\"runToCallback\":");
+		runToCallback.appendJson(json);
+		json.append(",\"total\":");
+		total.appendJson(json);
+		return json.append('}').toString();
+	}
+}
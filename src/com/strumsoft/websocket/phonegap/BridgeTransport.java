@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+/**
+ * A <tt>BridgeTransport</tt> carries scripts from the sockets over to the
+ * Javascript side. The {@link BridgeDispatcher} of a factory batches the
+ * socket events into scripts and hands them to its transport, which decides
+ * on which thread and by what means they are evaluated.
+ *
+ * @see LoadUrlTransport
+ * @see EvaluateJavascriptTransport
+ * @see InMemoryTransport
+ * @author Animesh Kumar
+ */
+public interface BridgeTransport {
+
+	/**
+	 * Runs <var>task</var> on the thread scripts are evaluated on, after
+	 * <var>delayMillis</var> milliseconds. May be called from any thread.
+	 *
+	 * @param task
+	 *            task to run
+	 * @param delayMillis
+	 *            delay, 0 to run as soon as possible
+	 */
+	void post(Runnable task, long delayMillis);
+
+	/**
+	 * Removes pending posts of <var>task</var>, if the transport can.
+	 *
+	 * @param task
+	 *            a task passed to {@link #post(Runnable, long)}
+	 */
+	void cancel(Runnable task);
+
+	/**
+	 * Evaluates <var>script</var>. Only called from tasks run through
+	 * {@link #post(Runnable, long)}.
+	 *
+	 * @param script
+	 *            Javascript source, without a "javascript:" scheme
+	 */
+	void evaluate(String script);
+}
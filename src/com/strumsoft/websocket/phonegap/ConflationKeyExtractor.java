@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+/**
+ * A <tt>ConflationKeyExtractor</tt> tells which messages of a feed supersede
+ * each other. Of the messages with the same key that arrive before the next
+ * dispatch to Javascript, only the latest is delivered.
+ *
+ * @see JsonFieldKeyExtractor
+ * @see PrefixKeyExtractor
+ * @author Animesh Kumar
+ */
+public interface ConflationKeyExtractor {
+
+	/**
+	 * Returns the key of <var>message</var>. Called on the event loop thread
+	 * for every message, so it should be cheap.
+	 *
+	 * @param message
+	 *            a text message
+	 * @return the key, or null to always deliver the message
+	 */
+	String keyOf(String message);
+}
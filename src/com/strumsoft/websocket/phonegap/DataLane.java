@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+/**
+ * The <tt>DataLane</tt> holds the messages waiting in a
+ * {@link BridgeDispatcher}, already written as the event objects of the
+ * dispatch script, back to back in one buffer. The producer pays for the
+ * escaping, and a delivery only copies ranges of characters.
+ *
+ * Messages can be shed from the front, and those of one socket can be taken
+ * out of order, for its close event. A delivery takes as many as fit into
+ * its script; the rest stay for the next one.
+ *
+ * @author Animesh Kumar
+ */
+class DataLane {
+
+	/**
+	 * Number of messages the arrays start with, and shrink back to.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+	/**
+	 * Most messages, and characters of text, an empty lane keeps room for;
+	 * the buffers of a larger burst are let go.
+	 */
+	private static final int MAX_RETAINED_MESSAGES = 1024;
+	private static final int MAX_RETAINED_LENGTH = 2 * BridgeDispatcher.DEFAULT_MAX_BATCH_SIZE;
+
+	/**
+	 * The event objects, each followed by a comma.
+	 */
+	private final StringBuilder text = new StringBuilder();
+	/**
+	 * Socket id of each message; null once taken.
+	 */
+	private String[] targets = new String[INITIAL_CAPACITY];
+	/**
+	 * Offset in {@link #text} of each message; the next entry is its end.
+	 */
+	private int[] starts = new int[INITIAL_CAPACITY + 1];
+	/**
+	 * Trace id of each message plus one, 0 if it is not traced; null until a
+	 * traced message comes.
+	 */
+	private int[] traces;
+	/**
+	 * Index of the oldest message not shed.
+	 */
+	private int head;
+	/**
+	 * Index past the newest message.
+	 */
+	private int tail;
+
+	/**
+	 * Appends a message of socket <var>target</var>.
+	 *
+	 * @param trace
+	 *            trace id of the message, or -1
+	 */
+	void add(String target, CharSequence message, int trace) {
+		if (tail == targets.length) {
+			grow();
+		}
+		targets[tail] = target;
+		starts[tail] = text.length();
+		if (traces == null && trace >= 0) {
+			traces = new int[targets.length];
+		}
+		if (traces != null) {
+			traces[tail] = trace + 1;
+		}
+		BridgeDispatcher.appendEvent(text, target, WebSocket.EVENT_ON_MESSAGE, trace, message);
+		text.append(',');
+		tail++;
+		starts[tail] = text.length();
+	}
+
+	/**
+	 * Drops the oldest message.
+	 */
+	void shed() {
+		targets[head] = null;
+		head++;
+		if (head == tail) {
+			clear();
+		} else if (head > 32 && head > tail - head) {
+			compact();
+		}
+	}
+
+	/**
+	 * @return number of messages waiting
+	 */
+	int size() {
+		return tail - head;
+	}
+
+	/**
+	 * @return number of characters the waiting messages take in the script
+	 */
+	int length() {
+		return text.length() - starts[head];
+	}
+
+	/**
+	 * Appends the messages of <var>target</var> to <var>out</var>, oldest
+	 * first and each followed by a comma, and takes them out of the lane. Stops
+	 * before a message that would make <var>out</var> longer than
+	 * <var>limit</var>, unless it is the first one taken. The traces of the
+	 * messages taken are stamped with <var>run</var>.
+	 *
+	 * @param tracer
+	 *            the tracer, or null
+	 * @return the number of messages taken
+	 */
+	int takeTarget(String target, StringBuilder out, int limit, BridgeTracer tracer, long run) {
+		int taken = 0;
+		for (int i = head; i < tail; i++) {
+			if (target.equals(targets[i])) {
+				if (taken > 0 && out.length() + starts[i + 1] - starts[i] > limit) {
+					break;
+				}
+				out.append(text, starts[i], starts[i + 1]);
+				targets[i] = null;
+				if (tracer != null && traces != null && traces[i] != 0) {
+					tracer.delivering(traces[i] - 1, run);
+				}
+				taken++;
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * @return true if a message of <var>target</var> is waiting
+	 */
+	boolean hasTarget(String target) {
+		for (int i = head; i < tail; i++) {
+			if (target.equals(targets[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends messages to <var>out</var>, oldest first and each followed by a
+	 * comma, and takes them out of the lane. Stops before a message that
+	 * would make <var>out</var> longer than <var>limit</var>, unless it is the
+	 * first one taken. The traces of the messages taken are stamped with
+	 * <var>run</var>.
+	 *
+	 * @param tracer
+	 *            the tracer, or null
+	 * @return the number of messages taken
+	 */
+	int take(StringBuilder out, int limit, BridgeTracer tracer, long run) {
+		int taken = 0;
+		int runStart = -1;
+		int i = head;
+		for (; i < tail; i++) {
+			if (targets[i] == null) {
+				if (runStart >= 0) {
+					out.append(text, starts[runStart], starts[i]);
+					runStart = -1;
+				}
+				continue;
+			}
+			int length = (runStart >= 0 ? starts[i + 1] - starts[runStart] : starts[i + 1] - starts[i]);
+			if (taken > 0 && out.length() + length > limit) {
+				break;
+			}
+			if (runStart < 0) {
+				runStart = i;
+			}
+			if (tracer != null && traces != null && traces[i] != 0) {
+				tracer.delivering(traces[i] - 1, run);
+			}
+			taken++;
+		}
+		if (runStart >= 0) {
+			out.append(text, starts[runStart], starts[i]);
+		}
+		if (i == tail) {
+			clear();
+		} else {
+			for (int j = head; j < i; j++) {
+				targets[j] = null;
+			}
+			head = i;
+		}
+		return taken;
+	}
+
+	/**
+	 * Appends the messages of <var>other</var> after those of this lane, and
+	 * empties <var>other</var>.
+	 */
+	void append(DataLane other) {
+		for (int i = other.head; i < other.tail; i++) {
+			if (other.targets[i] == null) {
+				continue;
+			}
+			if (tail == targets.length) {
+				grow();
+			}
+			targets[tail] = other.targets[i];
+			int trace = other.traces != null ? other.traces[i] : 0;
+			if (traces == null && trace != 0) {
+				traces = new int[targets.length];
+			}
+			if (traces != null) {
+				traces[tail] = trace;
+			}
+			text.append(other.text, other.starts[i], other.starts[i + 1]);
+			tail++;
+			starts[tail] = text.length();
+		}
+		other.clear();
+	}
+
+	/**
+	 * Moves the messages left after a delivery to the front, closing the gaps
+	 * of those taken out of order.
+	 */
+	void pack() {
+		int count = 0;
+		int length = 0;
+		for (int i = head; i < tail; i++) {
+			if (targets[i] == null) {
+				continue;
+			}
+			int start = starts[i];
+			int end = starts[i + 1];
+			if (start != length) {
+				for (int k = start; k < end; k++) {
+					text.setCharAt(length + k - start, text.charAt(k));
+				}
+			}
+			targets[count] = targets[i];
+			if (traces != null) {
+				traces[count] = traces[i];
+			}
+			starts[count] = length;
+			length += end - start;
+			count++;
+		}
+		for (int i = count; i < tail; i++) {
+			targets[i] = null;
+		}
+		text.setLength(length);
+		head = 0;
+		tail = count;
+		starts[count] = length;
+	}
+
+	/**
+	 * Lets go of the buffers of a past burst, if the lane is empty and they
+	 * grew beyond what it keeps.
+	 */
+	void trim() {
+		if (tail > head) {
+			return;
+		}
+		if (text.capacity() > MAX_RETAINED_LENGTH) {
+			text.setLength(0);
+			text.trimToSize();
+		}
+		if (targets.length > MAX_RETAINED_MESSAGES) {
+			targets = new String[INITIAL_CAPACITY];
+			starts = new int[INITIAL_CAPACITY + 1];
+			traces = null;
+			head = 0;
+			tail = 0;
+		}
+	}
+
+	private void clear() {
+		for (int i = head; i < tail; i++) {
+			targets[i] = null;
+		}
+		head = 0;
+		tail = 0;
+		starts[0] = 0;
+		text.setLength(0);
+	}
+
+	/**
+	 * Moves the waiting messages to the front, once more has been shed than
+	 * is left.
+	 */
+	private void compact() {
+		int offset = starts[head];
+		int count = tail - head;
+		text.delete(0, offset);
+		System.arraycopy(targets, head, targets, 0, count);
+		if (traces != null) {
+			System.arraycopy(traces, head, traces, 0, count);
+		}
+		for (int i = 0; i <= count; i++) {
+			starts[i] = starts[head + i] - offset;
+		}
+		for (int i = count; i < tail; i++) {
+			targets[i] = null;
+		}
+		head = 0;
+		tail = count;
+	}
+
+	private void grow() {
+		if (head > 0) {
+			compact();
+			if (tail < targets.length) {
+				return;
+			}
+		}
+		String[] newTargets = new String[targets.length * 2];
+		System.arraycopy(targets, 0, newTargets, 0, tail);
+		int[] newStarts = new int[newTargets.length + 1];
+		System.arraycopy(starts, 0, newStarts, 0, tail + 1);
+		if (traces != null) {
+			int[] newTraces = new int[newTargets.length];
+			System.arraycopy(traces, 0, newTraces, 0, tail);
+			traces = newTraces;
+		}
+		targets = newTargets;
+		starts = newStarts;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import android.webkit.WebView;
+
+/**
+ * The <tt>EvaluateJavascriptTransport</tt> evaluates scripts with
+ * {@link WebView#evaluateJavascript(String, android.webkit.ValueCallback)},
+ * available from Android 4.4 (API 19) on. Unlike loading a URL, this doesn't
+ * go through URL parsing and doesn't disturb the soft keyboard.
+ *
+ * @author Animesh Kumar
+ */
+public class EvaluateJavascriptTransport extends WebViewTransport {
+
+	/**
+	 * @param appView
+	 *            the view to evaluate the scripts in
+	 */
+	public EvaluateJavascriptTransport(WebView appView) {
+		super(appView);
+	}
+
+	public void evaluate(String script) {
+		appView.evaluateJavascript(script, null);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <tt>InMemoryTransport</tt> stands in for a WebView where there is none,
+ * e.g. to measure the dispatch path off the device. Tasks run on a single
+ * thread of its own, like they would on the UI thread, and scripts are
+ * handed to {@link #onScript(String)}, which by default queues them for
+ * {@link #poll(long)}.
+ *
+ * @author Animesh Kumar
+ */
+public class InMemoryTransport implements BridgeTransport {
+
+	private final ScheduledExecutorService executor = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "InMemoryTransport");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	/**
+	 * Delayed posts not run yet, so they can be cancelled.
+	 */
+	private final ConcurrentHashMap<Runnable, ScheduledFuture<?>> delayed = new ConcurrentHashMap<Runnable, ScheduledFuture<?>>();
+	private final BlockingQueue<String> scripts = new LinkedBlockingQueue<String>();
+
+	public void post(final Runnable task, long delayMillis) {
+		if (delayMillis <= 0) {
+			executor.execute(task);
+			return;
+		}
+		delayed.put(task, executor.schedule(new Runnable() {
+			public void run() {
+				delayed.remove(task);
+				task.run();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS));
+	}
+
+	public void cancel(Runnable task) {
+		ScheduledFuture<?> future = delayed.remove(task);
+		if (future != null) {
+			future.cancel(false);
+		}
+	}
+
+	public void evaluate(String script) {
+		onScript(script);
+	}
+
+	/**
+	 * Called on the transport's thread with each script. Queues it for
+	 * {@link #poll(long)}; override to consume scripts right away.
+	 *
+	 * @param script
+	 *            the script
+	 */
+	protected void onScript(String script) {
+		scripts.offer(script);
+	}
+
+	/**
+	 * Takes the oldest queued script.
+	 *
+	 * @param timeoutMillis
+	 *            how long to wait for one
+	 * @return the script, or null if none arrived in time
+	 * @throws InterruptedException
+	 */
+	public String poll(long timeoutMillis) throws InterruptedException {
+		return scripts.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the transport's thread.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
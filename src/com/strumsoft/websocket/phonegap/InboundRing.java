@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+/**
+ * The <tt>InboundRing</tt> is the bounded queue of the pull mode of a
+ * {@link WebSocketFactory}. The event loop appends decoded messages, and
+ * Javascript takes everything pending in a single bridge crossing through
+ * {@link WebSocketFactory#drain(int)}, instead of having each message pushed
+ * with its own <tt>loadUrl()</tt>.
+ *
+ * It keeps count of what happened to the messages, including those lost to
+ * the {@link OverflowPolicy}.
+ *
+ * @author Animesh Kumar
+ */
+class InboundRing {
+
+	/**
+	 * Longest an offer waits on a full ring under {@link OverflowPolicy#BLOCK}
+	 * before it drops the message. The waiting thread is the event loop, so
+	 * every socket of the factory stands still meanwhile.
+	 */
+	static final long MAX_BLOCK_MILLIS = 100;
+
+	private final String[] targets;
+	private final String[] messages;
+	private final OverflowPolicy policy;
+	/**
+	 * Index of the oldest message.
+	 */
+	private int head;
+	private int size;
+	/**
+	 * The drain result being built; reused between calls.
+	 */
+	private final StringBuilder json = new StringBuilder();
+
+	private long offered;
+	private long drained;
+	private long droppedOldest;
+	private long droppedNewest;
+	private long blocked;
+	private long blockedNanos;
+	private long blockTimeouts;
+	private int highWater;
+
+	/**
+	 * @param capacity
+	 *            number of messages held, at least 1
+	 * @param policy
+	 *            what to do when full
+	 */
+	InboundRing(int capacity, OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("Policy must not be null");
+		}
+		this.targets = new String[capacity];
+		this.messages = new String[capacity];
+		this.policy = policy;
+	}
+
+	/**
+	 * Appends a message of socket <var>target</var>, applying the overflow
+	 * policy if the ring is full. Blocking gives up after
+	 * {@link #MAX_BLOCK_MILLIS} and drops the message.
+	 *
+	 * @return true if the ring was empty before, i.e. Javascript has to be
+	 *         told to drain
+	 * @throws InterruptedException
+	 *             if interrupted while blocked on a full ring
+	 */
+	synchronized boolean offer(String target, String message) throws InterruptedException {
+		offered++;
+		if (size == messages.length) {
+			switch (policy) {
+			case BLOCK:
+				blocked++;
+				long start = System.nanoTime();
+				long deadline = start + MAX_BLOCK_MILLIS * 1000000;
+				try {
+					long left = deadline - start;
+					while (size == messages.length && left > 0) {
+						wait(left / 1000000, (int) (left % 1000000));
+						left = deadline - System.nanoTime();
+					}
+				} finally {
+					blockedNanos += System.nanoTime() - start;
+				}
+				if (size == messages.length) {
+					blockTimeouts++;
+					droppedNewest++;
+					return false;
+				}
+				break;
+			case DROP_OLDEST:
+				droppedOldest++;
+				targets[head] = null;
+				messages[head] = null;
+				head = (head + 1) % messages.length;
+				size--;
+				break;
+			default:
+				droppedNewest++;
+				return false;
+			}
+		}
+		int tail = (head + size) % messages.length;
+		targets[tail] = target;
+		messages[tail] = message;
+		size++;
+		if (size > highWater) {
+			highWater = size;
+		}
+		return size == 1;
+	}
+
+	/**
+	 * Takes up to <var>maxCount</var> messages, oldest first.
+	 *
+	 * @return a JSON array of <tt>{"_target":id,"_data":message}</tt>
+	 *         objects
+	 */
+	synchronized String drain(int maxCount) {
+		json.setLength(0);
+		json.append('[');
+		int count = Math.min(maxCount, size);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"_target\":");
+			JavaScriptString.appendJsonQuoted(json, targets[head]);
+			json.append(",\"_data\":");
+			JavaScriptString.appendJsonQuoted(json, messages[head]);
+			json.append('}');
+			targets[head] = null;
+			messages[head] = null;
+			head = (head + 1) % messages.length;
+		}
+		json.append(']');
+		size -= count;
+		drained += count;
+		if (count > 0 && policy == OverflowPolicy.BLOCK) {
+			notifyAll();
+		}
+		return json.toString();
+	}
+
+	/**
+	 * @return number of messages waiting to be drained
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the statistics as a JSON object
+	 */
+	synchronized String getStats() {
+		return "{\"policy\":\"" + policy + "\",\"capacity\":" + messages.length + ",\"size\":" + size
+				+ ",\"highWater\":" + highWater + ",\"offered\":" + offered + ",\"drained\":" + drained
+				+ ",\"droppedOldest\":" + droppedOldest + ",\"droppedNewest\":" + droppedNewest + ",\"blocked\":"
+				+ blocked + ",\"blockedMillis\":" + blockedNanos / 1000000 + ",\"blockTimeouts\":" + blockTimeouts
+				+ "}";
+	}
+}
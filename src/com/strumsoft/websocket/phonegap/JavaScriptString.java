@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import java.nio.CharBuffer;
+
+/**
+ * The <tt>JavaScriptString</tt> writes text as a single-quoted Javascript
+ * string literal, so a message can be embedded in a
+ * <tt>loadUrl("javascript:...")</tt> script as is, without Base64 encoding it
+ * here and decoding it again in Javascript.
+ *
+ * Besides single quotes, backslashes and control characters, it escapes
+ * what the WebView would otherwise interpret while loading the URL ('%' and
+ * '#'), the Javascript line terminators U+2028 and U+2029, and lone
+ * surrogates. Everything else, double quotes and non-ASCII text included, is
+ * copied in bulk runs, so JSON payloads come through almost untouched.
+ *
+ * Text handed to Javascript as a return value of the factory instead is
+ * written as a JSON string with {@link #appendJsonQuoted(StringBuilder, CharSequence)}.
+ *
+ * @author Animesh Kumar
+ */
+final class JavaScriptString {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Replacement of each ASCII character that needs escaping in a string
+	 * literal of a script URL; null if it can be copied.
+	 */
+	private static final String[] LITERAL_ESCAPES = controlEscapes();
+	/**
+	 * Replacement of each ASCII character that needs escaping in a JSON
+	 * string; null if it can be copied.
+	 */
+	private static final String[] JSON_ESCAPES = controlEscapes();
+
+	static {
+		LITERAL_ESCAPES['\''] = "\\'";
+		LITERAL_ESCAPES['\\'] = "\\\\";
+		LITERAL_ESCAPES['%'] = "\\x25";
+		LITERAL_ESCAPES['#'] = "\\x23";
+
+		JSON_ESCAPES['"'] = "\\\"";
+		JSON_ESCAPES['\\'] = "\\\\";
+	}
+
+	private JavaScriptString() {
+	}
+
+	/**
+	 * Appends <var>text</var> to <var>out</var> as a single-quoted string
+	 * literal.
+	 *
+	 * @param out
+	 *            the script being built
+	 * @param text
+	 *            the text; null is written as an empty string
+	 */
+	static void appendQuoted(StringBuilder out, CharSequence text) {
+		out.append('\'');
+		if (text != null) {
+			appendEscaped(out, text, LITERAL_ESCAPES);
+		}
+		out.append('\'');
+	}
+
+	/**
+	 * Appends <var>text</var> to <var>out</var> as a double-quoted JSON
+	 * string.
+	 *
+	 * @param out
+	 *            the JSON being built
+	 * @param text
+	 *            the text; null is written as an empty string
+	 */
+	static void appendJsonQuoted(StringBuilder out, CharSequence text) {
+		out.append('"');
+		if (text != null) {
+			appendEscaped(out, text, JSON_ESCAPES);
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Appends <var>text</var> to <var>out</var> with the ASCII characters in
+	 * <var>asciiEscapes</var> escaped, plus line terminators and lone
+	 * surrogates.
+	 */
+	private static void appendEscaped(StringBuilder out, CharSequence text, String[] asciiEscapes) {
+		if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+			// a frame parser's buffer; indexing the array beats charAt()
+			CharBuffer buffer = (CharBuffer) text;
+			int start = buffer.arrayOffset() + buffer.position();
+			appendEscaped(out, buffer.array(), start, start + buffer.remaining(), asciiEscapes);
+			return;
+		}
+		int length = text.length();
+		out.ensureCapacity(out.length() + length + 2);
+		int run = 0;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			String escape;
+			if (c < 128) {
+				escape = asciiEscapes[c];
+				if (escape == null) {
+					continue;
+				}
+			} else if (c == '\u2028' || c == '\u2029') {
+				escape = unicodeEscape(c);
+			} else if (Character.isHighSurrogate(c)) {
+				if (i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					i++;
+					continue;
+				}
+				escape = unicodeEscape(c);
+			} else if (Character.isLowSurrogate(c)) {
+				escape = unicodeEscape(c);
+			} else {
+				continue;
+			}
+			out.append(text, run, i).append(escape);
+			run = i + 1;
+		}
+		out.append(text, run, length);
+	}
+
+	/**
+	 * Same as {@link #appendEscaped(StringBuilder, CharSequence, String[])},
+	 * for the characters <var>start</var> to <var>end</var> of an array.
+	 */
+	private static void appendEscaped(StringBuilder out, char[] text, int start, int end, String[] asciiEscapes) {
+		out.ensureCapacity(out.length() + end - start + 2);
+		int run = start;
+		for (int i = start; i < end; i++) {
+			char c = text[i];
+			String escape;
+			if (c < 128) {
+				escape = asciiEscapes[c];
+				if (escape == null) {
+					continue;
+				}
+			} else if (c == '\u2028' || c == '\u2029') {
+				escape = unicodeEscape(c);
+			} else if (Character.isHighSurrogate(c)) {
+				if (i + 1 < end && Character.isLowSurrogate(text[i + 1])) {
+					i++;
+					continue;
+				}
+				escape = unicodeEscape(c);
+			} else if (Character.isLowSurrogate(c)) {
+				escape = unicodeEscape(c);
+			} else {
+				continue;
+			}
+			out.append(text, run, i - run).append(escape);
+			run = i + 1;
+		}
+		out.append(text, run, end - run);
+	}
+
+	private static String[] controlEscapes() {
+		String[] escapes = new String[128];
+		for (int c = 0; c < 0x20; c++) {
+			escapes[c] = unicodeEscape((char) c);
+		}
+		escapes['\b'] = "\\b";
+		escapes['\t'] = "\\t";
+		escapes['\n'] = "\\n";
+		escapes['\f'] = "\\f";
+		escapes['\r'] = "\\r";
+		return escapes;
+	}
+
+	private static String unicodeEscape(char c) {
+		return new String(new char[] { '\\', 'u', HEX[c >> 12], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF],
+				HEX[c & 0xF] });
+	}
+}
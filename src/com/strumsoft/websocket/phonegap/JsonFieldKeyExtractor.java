@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+/**
+ * The <tt>JsonFieldKeyExtractor</tt> keys a JSON message by the value of a
+ * field, e.g. "AAPL" for <tt>{"symbol":"AAPL","bid":189.2}</tt> with field
+ * "symbol".
+ *
+ * The message is not parsed; the first occurrence of the quoted field name
+ * followed by a colon is taken, at whatever depth. String values are
+ * returned as they appear between the quotes, escapes included; other values
+ * up to the next comma, brace, bracket or white space.
+ *
+ * @author Animesh Kumar
+ */
+public class JsonFieldKeyExtractor implements ConflationKeyExtractor {
+
+	private final String quotedField;
+
+	/**
+	 * @param field
+	 *            name of the field holding the key
+	 */
+	public JsonFieldKeyExtractor(String field) {
+		if (field == null || field.length() == 0) {
+			throw new IllegalArgumentException("Field must not be empty");
+		}
+		this.quotedField = '"' + field + '"';
+	}
+
+	/**
+	 * @return the field's value, or null if the message has no such field
+	 */
+	public String keyOf(String message) {
+		int from = 0;
+		int length = message.length();
+		while (true) {
+			int i = message.indexOf(quotedField, from);
+			if (i < 0) {
+				return null;
+			}
+			from = i + quotedField.length();
+			i = skipWhitespace(message, from);
+			if (i >= length || message.charAt(i) != ':') {
+				// the name appeared as a string value; keep looking
+				continue;
+			}
+			i = skipWhitespace(message, i + 1);
+			if (i >= length) {
+				return null;
+			}
+			if (message.charAt(i) == '"') {
+				int start = i + 1;
+				for (int j = start; j < length; j++) {
+					char c = message.charAt(j);
+					if (c == '\\') {
+						j++;
+					} else if (c == '"') {
+						return message.substring(start, j);
+					}
+				}
+				return null;
+			}
+			int end = i;
+			while (end < length) {
+				char c = message.charAt(end);
+				if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+					break;
+				}
+				end++;
+			}
+			return end > i ? message.substring(i, end) : null;
+		}
+	}
+
+	private static int skipWhitespace(String s, int i) {
+		while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+import android.webkit.WebView;
+
+/**
+ * The <tt>LoadUrlTransport</tt> evaluates scripts by loading them as
+ * "javascript:" URLs, which works on every Android version.
+ *
+ * Loading a URL hides the soft keyboard, so while the keyboard is showing
+ * scripts go to the activity's {@link Handler} instead, as a message with
+ * <tt>what == 3</tt> and the URL as <tt>obj</tt>, for it to load the URL and
+ * bring the keyboard back.
+ *
+ * @author Animesh Kumar
+ */
+public class LoadUrlTransport extends WebViewTransport {
+
+	private final Handler handler;
+
+	private volatile boolean keyboardIsShowing = false;
+
+	/**
+	 * @param handler
+	 *            the activity's handler, used while the keyboard is showing
+	 * @param appView
+	 *            the view to load the scripts into
+	 */
+	public LoadUrlTransport(Handler handler, WebView appView) {
+		super(appView);
+		this.handler = handler;
+	}
+
+	public void setKeyboardStatus(boolean status) {
+		keyboardIsShowing = status;
+		Log.d("websocket", "keyboardIsShowing: " + keyboardIsShowing);
+	}
+
+	public void evaluate(String script) {
+		String url = "javascript:" + script;
+		if (keyboardIsShowing && handler != null) {
+			handler.sendMessage(Message.obtain(handler, 3, url));
+		} else {
+			appView.loadUrl(url);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+/**
+ * The <tt>PrefixKeyExtractor</tt> keys a message by the text before a
+ * delimiter, e.g. "AAPL" for "AAPL|189.20|189.24" with "|".
+ *
+ * @author Animesh Kumar
+ */
+public class PrefixKeyExtractor implements ConflationKeyExtractor {
+
+	private final String delimiter;
+
+	/**
+	 * @param delimiter
+	 *            the text ending the key
+	 */
+	public PrefixKeyExtractor(String delimiter) {
+		if (delimiter == null || delimiter.length() == 0) {
+			throw new IllegalArgumentException("Delimiter must not be empty");
+		}
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * @return the text before the first delimiter, or null if there is none
+	 */
+	public String keyOf(String message) {
+		int end = message.indexOf(delimiter);
+		return end < 0 ? null : message.substring(0, end);
+	}
+}
@@ -26,11 +26,21 @@
  */
 package com.strumsoft.websocket.phonegap;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import com.strumsoft.websocket.PerMessageDeflate;
+import com.strumsoft.websocket.TlsSessionCache;
+import com.strumsoft.websocket.WebSocketEventLoop;
+import com.strumsoft.websocket.WebSocketListener;
 
 import android.app.Activity;
+import android.os.Build;
 import android.os.Handler;
 import android.webkit.WebView;
 
@@ -43,10 +53,40 @@ import android.webkit.WebView;
  */
 public class WebSocketFactory {
 	
+	/** Numbers the sockets of all factories. */
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
 	private Vector<WebSocket> socketList = new Vector<WebSocket>();
 	
 	private Handler handler;
 
+	/** Delivers the events of all sockets of this factory to Javascript; null without a WebView. */
+	private BridgeDispatcher dispatcher;
+
+	/** The event loop shared by all sockets of this factory. */
+	private WebSocketEventLoop eventLoop;
+
+	/** The permessage-deflate extension offered by new RFC 6455 sockets, or null. */
+	private PerMessageDeflate perMessageDeflate;
+
+	/** Creates the TLS engines of "wss://" sockets; the platform default if null. */
+	private SSLContext sslContext;
+
+	/** Checks server certificates of "wss://" sockets; if null, the TLS engine checks them as HTTPS does. */
+	private HostnameVerifier hostnameVerifier;
+
+	/** Lets "wss://" sockets resume the TLS sessions of earlier connections. */
+	private TlsSessionCache tlsSessionCache = new TlsSessionCache();
+
+	/** Keys the messages of new sockets for conflation, or null. */
+	private ConflationKeyExtractor conflation;
+
+	/** Credits new sockets start with, or -1 to read without flow control. */
+	private int flowControlCredits = -1;
+
+	/** The draft used by {@link #getInstance(String)}. */
+	private WebSocket.Draft defaultDraft = WebSocket.Draft.DRAFT76;
+
 	/** The app view. */
 	WebView appView;
 
@@ -59,6 +99,16 @@ public class WebSocketFactory {
 	public WebSocketFactory(Handler h, WebView appView) {
 		this.appView = appView;
 		this.handler = h;
+		this.dispatcher = new BridgeDispatcher(defaultTransport(h, appView));
+	}
+
+	/**
+	 * Instantiates a factory without a WebView, for sockets used from Java
+	 * through a {@link WebSocketListener}. Sockets talking to Javascript
+	 * need a bridge set with {@link #setBridgeTransport(BridgeTransport)}
+	 * first, e.g. an {@link InMemoryTransport} off the device.
+	 */
+	public WebSocketFactory() {
 	}
 	
 	public Vector<WebSocket> getSocketList() {
@@ -66,34 +116,398 @@ public class WebSocketFactory {
 	}
 
 	public WebSocket getInstance(String url) {
-		// use Draft76 by default
-		return getInstance(url, WebSocket.Draft.DRAFT76);
+		// use Draft76 unless told otherwise
+		return getInstance(url, defaultDraft);
+	}
+
+	/**
+	 * Sets the draft used for sockets created from Javascript, which can't
+	 * pass one.
+	 * 
+	 * @param draft
+	 *            the draft, {@link WebSocket.Draft#DRAFT76} by default
+	 */
+	public void setDefaultDraft(WebSocket.Draft draft) {
+		this.defaultDraft = draft;
 	}
 
 	public WebSocket getInstance(String url, WebSocket.Draft draft) {
+		return getInstance(url, draft, null);
+	}
+
+	/**
+	 * Creates and connects a socket whose events go to <var>listener</var>
+	 * on the event loop thread, instead of to Javascript.
+	 * 
+	 * @param url
+	 *            "ws://" or "wss://" URI of the server
+	 * @param draft
+	 *            the protocol draft the server speaks
+	 * @param listener
+	 *            receives the events; null to deliver them to Javascript,
+	 *            which needs a factory with a bridge
+	 * @return the socket, or null if it could not be created
+	 */
+	public WebSocket getInstance(String url, WebSocket.Draft draft, WebSocketListener listener) {
+		if (listener == null && dispatcher == null) {
+			throw new IllegalStateException("No bridge to deliver events to; pass a WebSocketListener");
+		}
 		WebSocket socket = null;
-		Thread th = null;
 		try {
-			socket = new WebSocket(handler, appView, new URI(url), draft, getRandonUniqueId());
+			socket = listener != null ? new WebSocket(listener, getEventLoop(), new URI(url), draft,
+					getRandonUniqueId()) : new WebSocket(dispatcher, getEventLoop(), new URI(url), draft,
+					getRandonUniqueId());
+			socket.setPerMessageDeflate(perMessageDeflate);
+			socket.setSSLContext(sslContext, hostnameVerifier);
+			socket.setTlsSessionCache(tlsSessionCache);
+			socket.setConflation(conflation);
+			if (flowControlCredits >= 0) {
+				socket.setFlowControl(flowControlCredits);
+			}
 			socketList.add(socket);
-			th = socket.connect();
+			socket.connect();
 			return socket;
 		} catch (Exception e) {
 			//Log.v("websocket", e.toString());
-			if(th != null) {
-				th.interrupt();
+			if(socket != null) {
+				socketList.remove(socket);
 			}
 		} 
 		return null;
 	}
 
 	/**
-	 * Generates random unique ids for WebSocket instances
+	 * Makes new {@link WebSocket.Draft#RFC6455} sockets offer permessage-deflate
+	 * compression.
+	 * 
+	 * @param config
+	 *            the extension parameters, or null to turn compression off
+	 */
+	public void setPerMessageDeflate(PerMessageDeflate config) {
+		this.perMessageDeflate = config;
+	}
+
+	/**
+	 * Replaces how scripts reach the page. By default they are evaluated with
+	 * {@link EvaluateJavascriptTransport} where available (Android 4.4 and
+	 * later), and loaded as URLs with {@link LoadUrlTransport} before that.
+	 * Call before creating sockets.
+	 * 
+	 * @param transport
+	 *            the transport
+	 */
+	public void setBridgeTransport(BridgeTransport transport) {
+		if (dispatcher == null) {
+			if (transport == null) {
+				throw new IllegalArgumentException("Transport must not be null");
+			}
+			dispatcher = new BridgeDispatcher(transport);
+		} else {
+			dispatcher.setTransport(transport);
+		}
+	}
+
+	/**
+	 * Sets how events are batched on their way to Javascript. Messages
+	 * arriving within <var>maxDelay</var> milliseconds of each other are
+	 * delivered in a single call, up to <var>maxBatchSize</var> characters of
+	 * script.
+	 * 
+	 * @param maxDelay
+	 *            latency bound in milliseconds, 16 by default
+	 * @param maxBatchSize
+	 *            size bound in characters, 64K by default
+	 */
+	public void setBatchLimits(long maxDelay, int maxBatchSize) {
+		bridge().setBatchLimits(maxDelay, maxBatchSize);
+	}
+
+	/**
+	 * Bounds the number of messages waiting to be pushed into the page. When
+	 * the page falls behind and the limit is reached, the oldest waiting
+	 * message is shed for each new one. Open, close and error events are never
+	 * shed, and don't wait behind messages. Unbounded by default.
+	 * 
+	 * @param maxMessages
+	 *            maximum number of waiting messages
+	 */
+	public void setDataLaneLimit(int maxMessages) {
+		bridge().setDataLaneLimit(maxMessages);
+	}
+
+	/**
+	 * Returns how many events wait in the control and data lanes, how many
+	 * messages were shed and how many events were delivered.
+	 * 
+	 * @return the counters as a JSON object
+	 */
+	public String getLaneStats() {
+		return bridge().getLaneStats();
+	}
+
+	/**
+	 * Makes new sockets deliver only the latest message per key of those
+	 * arriving before the next dispatch to Javascript.
+	 * 
+	 * @param extractor
+	 *            keys the messages, e.g. a {@link JsonFieldKeyExtractor}; null
+	 *            to deliver every message
+	 * @see WebSocket#setConflation(ConflationKeyExtractor)
+	 */
+	public void setConflation(ConflationKeyExtractor extractor) {
+		this.conflation = extractor;
+	}
+
+	/**
+	 * Returns how many messages went through conflation, and how many of them
+	 * were dropped because a later one with the same key replaced them.
+	 * 
+	 * @return the counters as a JSON object
+	 */
+	public String getConflationStats() {
+		return bridge().getConflationStats();
+	}
+
+	/**
+	 * Makes new sockets stop reading once they received
+	 * <var>initialCredits</var> messages, until the page grants more with
+	 * <tt>grantCredits(n)</tt> on the socket. This bounds the messages waiting
+	 * for a slow page, and holds the server back through TCP.
+	 * 
+	 * @param initialCredits
+	 *            messages a socket may receive before the first grant, or -1
+	 *            to turn flow control off (the default)
+	 * @see WebSocket#setFlowControl(int)
+	 */
+	public void setFlowControl(int initialCredits) {
+		this.flowControlCredits = initialCredits;
+	}
+
+	/**
+	 * Switches to pull mode: instead of pushing each batch of messages into
+	 * the page, sockets append them to a bounded queue, and the page takes
+	 * everything pending with {@link #drain(int)} whenever it is told that
+	 * messages are waiting. Open, close and error events are still pushed.
+	 * Call before creating sockets.
+	 * 
+	 * @param capacity
+	 *            number of messages the queue holds
+	 * @param policy
+	 *            what to do with a message arriving while the queue is full
+	 */
+	public void setPullMode(int capacity, OverflowPolicy policy) {
+		bridge().setPullMode(new InboundRing(capacity, policy));
+	}
+
+	/**
+	 * Switches back to pushing messages into the page, the default.
+	 */
+	public void setPushMode() {
+		bridge().setPullMode(null);
+	}
+
+	/**
+	 * Takes the messages waiting in pull mode. Called from Javascript.
+	 * 
+	 * @param maxCount
+	 *            maximum number of messages to take
+	 * @return a JSON array of {"_target": socket id, "_data": message}
+	 *         objects, oldest first; empty in push mode
+	 */
+	public String drain(int maxCount) {
+		return bridge().drain(maxCount);
+	}
+
+	/**
+	 * Returns what happened to the messages in pull mode: how many were
+	 * queued, drained and dropped, how often the event loop had to wait for
+	 * room and how often it gave up waiting, and the highest queue length
+	 * seen.
+	 * 
+	 * @return the statistics as a JSON object, or null in push mode
+	 */
+	public String getPullStats() {
+		return bridge().getPullStats();
+	}
+
+	/**
+	 * Returns the metrics of the sockets of this factory: bytes and messages
+	 * in and out, send queue depth and high-water mark, reconnects, a
+	 * histogram of sampled read-to-dispatch times, and the handshake time,
+	 * as a histogram in the totals and as count, mean and maximum per
+	 * socket. With a TLS session cache, also its resumed and full
+	 * handshakes. Called from Javascript.
+	 * 
+	 * @return a JSON object with the totals under "total", the metrics of
+	 *         each socket under "sockets", by id, and those of the TLS session
+	 *         cache under "tls"; null if the event loop cannot be opened
+	 * @see com.strumsoft.websocket.ConnectionMetrics
+	 */
+	public String getMetrics() {
+		StringBuilder json = new StringBuilder(1024);
+		try {
+			json.append("{\"total\":");
+			getEventLoop().getMetrics().appendJson(json);
+		} catch (IOException e) {
+			return null;
+		}
+		json.append(",\"sockets\":{");
+		synchronized (socketList) {
+			for (int i = 0; i < socketList.size(); i++) {
+				WebSocket socket = socketList.get(i);
+				if (i > 0) {
+					json.append(',');
+				}
+				json.append('"').append(socket.getId()).append("\":");
+				socket.getMetrics().appendJson(json);
+			}
+		}
+		json.append('}');
+		TlsSessionCache cache = this.tlsSessionCache;
+		if (cache != null) {
+			json.append(",\"tls\":");
+			cache.appendJson(json);
+		}
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Traces every <var>sampleEvery</var>-th message on its way to the page:
+	 * when the read completing it finished, when it was decoded, queued for
+	 * the UI thread, when its delivery started running, and when
+	 * websocket.js entered its callback. {@link #getTraceStats()} has a
+	 * histogram of each stage. Off by default; then it costs a volatile read
+	 * per message.
+	 * 
+	 * @param sampleEvery
+	 *            trace one message out of this many, 0 to stop tracing
+	 */
+	public void setTracing(int sampleEvery) {
+		bridge().setTracer(sampleEvery > 0 ? new BridgeTracer(sampleEvery) : null);
+	}
+
+	/**
+	 * Completes the trace of a message entering its callback. Called from
+	 * Javascript.
+	 * 
+	 * @param trace
+	 *            the message's <tt>_trace</tt> id
+	 */
+	public void traceCallback(int trace) {
+		BridgeTracer t = bridge().getTracer();
+		if (t != null) {
+			t.called(trace);
+		}
+	}
+
+	/**
+	 * Returns the histograms of the traced stages: read to decode, decode to
+	 * enqueue, enqueue to run, run to callback, and the total.
+	 * 
+	 * @return the histograms as a JSON object, or null while tracing is off
+	 */
+	public String getTraceStats() {
+		BridgeTracer t = bridge().getTracer();
+		return t == null ? null : t.getStats();
+	}
+
+	/**
+	 * Returns the metrics of one socket. Called from Javascript.
+	 * 
+	 * @param id
+	 *            the id of the socket
+	 * @return the metrics as a JSON object, or null if there is no such socket
+	 */
+	public String getSocketMetrics(String id) {
+		synchronized (socketList) {
+			for (WebSocket socket : socketList) {
+				if (socket.getId().equals(id)) {
+					return socket.getMetrics().toJson();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sets what new "wss://" sockets use for TLS, e.g. to trust a private
+	 * certificate authority.
+	 * 
+	 * @param sslContext
+	 *            creates the TLS engines, null for the platform default
+	 * @param hostnameVerifier
+	 *            checks server certificates against the host, null to have
+	 *            the TLS engine check them as HTTPS does (the default)
+	 */
+	public void setSSLContext(SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+		this.sslContext = sslContext;
+		this.hostnameVerifier = hostnameVerifier;
+	}
+
+	/**
+	 * Replaces the cache that bounds which endpoints new "wss://" sockets
+	 * resume the TLS sessions of earlier connections to.
+	 * 
+	 * @param cache
+	 *            the cache, or null to leave resuming to the SSL context
+	 *            alone, without these bounds and handshake counts
+	 */
+	public void setTlsSessionCache(TlsSessionCache cache) {
+		this.tlsSessionCache = cache;
+	}
+
+	/**
+	 * Returns the TLS session cache, e.g. to read the reconnect latency.
+	 * 
+	 * @return TlsSessionCache, or null
+	 */
+	public TlsSessionCache getTlsSessionCache() {
+		return tlsSessionCache;
+	}
+
+	/**
+	 * Returns the event loop shared by all sockets of this factory, opening it
+	 * on first use.
+	 * 
+	 * @return WebSocketEventLoop
+	 * @throws IOException
+	 */
+	private synchronized WebSocketEventLoop getEventLoop() throws IOException {
+		if (eventLoop == null) {
+			eventLoop = new WebSocketEventLoop();
+		}
+		return eventLoop;
+	}
+
+	/**
+	 * Returns the dispatcher of the sockets talking to Javascript.
+	 * 
+	 * @return BridgeDispatcher
+	 * @throws IllegalStateException
+	 *             if this factory has neither a WebView nor a transport
+	 */
+	private BridgeDispatcher bridge() {
+		if (dispatcher == null) {
+			throw new IllegalStateException("This factory has no bridge");
+		}
+		return dispatcher;
+	}
+
+	private static BridgeTransport defaultTransport(Handler handler, WebView appView) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			return new EvaluateJavascriptTransport(appView);
+		}
+		return new LoadUrlTransport(handler, appView);
+	}
+
+	/**
+	 * Generates unique ids for WebSocket instances, counting up across
+	 * factories.
 	 * 
 	 * @return String
 	 */
 	private String getRandonUniqueId() {
-		return "WEBSOCKET." + new Random().nextInt(100);
+		return "WEBSOCKET." + NEXT_ID.incrementAndGet();
 	}
 
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2010 Animesh Kumar  (https://github.com/anismiles)
+ * Copyright (c) 2010 Strumsoft  (https://strumsoft.com)
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.strumsoft.websocket.phonegap;
+
+import android.webkit.WebView;
+
+/**
+ * The <tt>WebViewTransport</tt> runs the scripts of a {@link BridgeTransport}
+ * on the UI thread of a {@link WebView}. Subclasses decide how a script is
+ * handed to the view.
+ *
+ * @author Animesh Kumar
+ */
+public abstract class WebViewTransport implements BridgeTransport {
+
+	/**
+	 * The WebView instance from Phonegap DroidGap
+	 */
+	protected final WebView appView;
+
+	protected WebViewTransport(WebView appView) {
+		this.appView = appView;
+	}
+
+	public void post(Runnable task, long delayMillis) {
+		if (delayMillis > 0) {
+			appView.postDelayed(task, delayMillis);
+		} else {
+			appView.post(task);
+		}
+	}
+
+	public void cancel(Runnable task) {
+		appView.removeCallbacks(task);
+	}
+}